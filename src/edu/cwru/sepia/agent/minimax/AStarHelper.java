@@ -116,7 +116,8 @@ public class AStarHelper {
 	private Stack<MapLocation> buildPath(MapLocation dest, MapLocation start) {
 		Stack<MapLocation> path = new Stack<MapLocation>();
 		MapLocation end = dest.parent;
-		while (!end.equals(start)) {
+		// No parent when the unit already stands on its target
+		while (end != null && !end.equals(start)) {
 			path.push(end);
 			end = end.parent;
 		}
@@ -163,7 +164,8 @@ public class AStarHelper {
 
 	private float totalCost(MapLocation loc, MapLocation goal) {
 		float g = loc.cost;
-		float h = Math.max(Math.abs(goal.x - loc.x), Math.abs(goal.y - loc.y));
+		// Units only move N, S, E and W so Manhattan distance is admissible
+		float h = Distances.manhattan(loc.x, loc.y, goal.x, goal.y);
 		return g + h;
 	}
 
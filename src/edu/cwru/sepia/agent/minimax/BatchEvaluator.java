@@ -0,0 +1,374 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+
+import edu.cwru.sepia.action.Action;
+import edu.cwru.sepia.action.ActionType;
+import edu.cwru.sepia.action.DirectedAction;
+import edu.cwru.sepia.action.TargetedAction;
+import edu.cwru.sepia.agent.minimax.AStarHelper.MapLocation;
+import edu.cwru.sepia.util.Direction;
+
+/**
+ * Scores the children of a node straight from the node and the joint action
+ * leading to each child, without building the child states. Gives the same
+ * values as calling {@link GameState#getUtility()} on the children returned by
+ * {@link GameState#getChildren()}, including the A* path bonus, so the search
+ * uses it at the last ply, where children are only scored, never expanded.
+ * Like getUtility it reads and fills the {@link GameState#getEvaluationCache()
+ * evaluation cache}, keyed by the {@link GameState#stateHash()} each child
+ * would have, and only runs the kernels below when a child missed.
+ *
+ * The parent's units are copied into a structure of arrays: one int array
+ * each for x, y and HP, laid out unit slot by unit slot with the children side
+ * by side. Each joint action is applied to its child's column, then every
+ * kernel loop runs over children with unit stride and no branches, a shape the
+ * JIT compiles to SIMD code. Units killed by the joint action are kept in
+ * their slot but add nothing to any feature: a dead footman stands on archer
+ * 0 and has no HP, a dead archer stands far off the map and has no HP. Only
+ * the side not moving loses units, so archer 0 is alive whenever a footman
+ * dies.
+ *
+ * An instance reuses its buffers between calls and must not be shared between
+ * threads.
+ */
+public class BatchEvaluator {
+
+	// Coordinate of dead archer slots, far enough never to be nearest while
+	// keeping squared distances within an int
+	private static final int FAR = 1 << 14;
+
+	// The node whose children are scored, and its units by slot
+	private GameState parent;
+	private int footmanSlots;
+	private int archerSlots;
+	private int[] footmanIds = new int[0];
+	private int[] parentFootmanX = new int[0];
+	private int[] parentFootmanY = new int[0];
+	private int[] parentFootmanHp = new int[0];
+	private int[] footmanDamage = new int[0];
+	private int[] archerIds = new int[0];
+	private int[] parentArcherX = new int[0];
+	private int[] parentArcherY = new int[0];
+	private int[] parentArcherHp = new int[0];
+	private int[] archerDamage = new int[0];
+	// Next step of each footman's A* path, if it has one
+	private boolean[] hasPath = new boolean[0];
+	private int[] pathX = new int[0];
+	private int[] pathY = new int[0];
+
+	// Unit slot major, i.e. unit s of child c is at s * n + c
+	private int[] footmanX = new int[0];
+	private int[] footmanY = new int[0];
+	private int[] footmanHp = new int[0];
+	private int[] archerX = new int[0];
+	private int[] archerY = new int[0];
+	private int[] archerHp = new int[0];
+
+	// Per child
+	private int[] footmanCount = new int[0];
+	private int[] archerCount = new int[0];
+	// Cache key, 0 for a terminal child, and the positional utility, NaN
+	// until it is read from the cache or computed
+	private long[] keys = new long[0];
+	private double[] positional = new double[0];
+	private int[] minSquared = new int[0];
+	private double[] distanceSum = new double[0];
+	private double[] footmanHpSum = new double[0];
+	private double[] archerHpSum = new double[0];
+
+	/**
+	 * Scores a range of a node's children.
+	 *
+	 * @param node
+	 *            a non-terminal state.
+	 * @param children
+	 *            children of node, of which only the joint actions are read.
+	 *            Their states may be null.
+	 * @param from
+	 *            the first child to score.
+	 * @param to
+	 *            one past the last child to score.
+	 * @param values
+	 *            receives the utility of child i at index i.
+	 */
+	public void evaluate(GameState node, List<GameStateChild> children,
+			int from, int to, double[] values) {
+		if (node != parent) {
+			prepare(node);
+		}
+		int n = to - from;
+		ensureCapacity(n);
+		applyJointActions(children, from, n);
+		removeDeadUnits(n);
+		EvaluationCache cache = GameState.getEvaluationCache();
+		if (lookup(cache, n) > 0) {
+			positionalUtilities(cache, n);
+		}
+
+		EvaluationWeights w = GameState.getWeights();
+		double bonusWeight = w.get(EvaluationWeights.A_STAR_PATH_BONUS);
+		for (int c = 0; c < n; c++) {
+			if (footmanCount[c] == 0) {
+				values[from + c] = Integer.MIN_VALUE;
+			} else if (archerCount[c] == 0) {
+				values[from + c] = Integer.MAX_VALUE;
+			} else {
+				values[from + c] = positional[c]
+						+ pathBonus(c, n, bonusWeight);
+			}
+		}
+	}
+
+	// Hashes every non-terminal child as GameState.stateHash would and reads
+	// its positional utility from the cache. Returns the number of misses.
+	private int lookup(EvaluationCache cache, int n) {
+		long turnHash = GameState.hashTurn(!parent.isFootmanTurn());
+		int misses = 0;
+		for (int c = 0; c < n; c++) {
+			if (footmanCount[c] == 0 || archerCount[c] == 0) {
+				keys[c] = 0;
+				continue;
+			}
+			long hash = turnHash;
+			for (int s = 0; s < footmanSlots; s++) {
+				int i = s * n + c;
+				if (footmanHp[i] > 0) {
+					hash = GameState.hashUnit(hash, footmanIds[s],
+							footmanX[i], footmanY[i], footmanHp[i]);
+				}
+			}
+			hash = GameState.hashCount(hash, footmanCount[c]);
+			for (int s = 0; s < archerSlots; s++) {
+				int i = s * n + c;
+				if (archerHp[i] > 0) {
+					hash = GameState.hashUnit(hash, archerIds[s],
+							archerX[i], archerY[i], archerHp[i]);
+				}
+			}
+			hash = GameState.hashCount(hash, archerCount[c]);
+			keys[c] = hash == 0 ? 1 : hash;
+			positional[c] = cache.lookup(keys[c]);
+			if (Double.isNaN(positional[c])) {
+				misses++;
+			}
+		}
+		return misses;
+	}
+
+	// Computes the positional utility of every child, and keeps and caches it
+	// for the children that missed
+	private void positionalUtilities(EvaluationCache cache, int n) {
+		EvaluationWeights w = GameState.getWeights();
+		double distanceWeight = w.get(EvaluationWeights.DISTANCE);
+		double footmanHpWeight = w.get(EvaluationWeights.FOOTMAN_HP);
+		double archerHpWeight = w.get(EvaluationWeights.ARCHER_HP);
+		Arrays.fill(distanceSum, 0, n, 0);
+		Arrays.fill(footmanHpSum, 0, n, 0);
+		Arrays.fill(archerHpSum, 0, n, 0);
+
+		for (int f = 0; f < footmanSlots; f++) {
+			int fBase = f * n;
+			Arrays.fill(minSquared, 0, n, Integer.MAX_VALUE);
+			for (int a = 0; a < archerSlots; a++) {
+				int aBase = a * n;
+				for (int c = 0; c < n; c++) {
+					int dx = footmanX[fBase + c] - archerX[aBase + c];
+					int dy = footmanY[fBase + c] - archerY[aBase + c];
+					minSquared[c] = Math.min(minSquared[c], dx * dx + dy * dy);
+				}
+			}
+			for (int c = 0; c < n; c++) {
+				distanceSum[c] += distanceWeight
+						* (int) Math.sqrt(minSquared[c]);
+				footmanHpSum[c] += footmanHp[fBase + c] * footmanHpWeight;
+			}
+		}
+		for (int a = 0; a < archerSlots; a++) {
+			int aBase = a * n;
+			for (int c = 0; c < n; c++) {
+				archerHpSum[c] += archerHp[aBase + c] * archerHpWeight;
+			}
+		}
+
+		// Summed in the same order as GameState.positionalUtility so both
+		// agree exactly
+		double footmanWeight = w.get(EvaluationWeights.FOOTMAN);
+		double archerWeight = w.get(EvaluationWeights.ARCHER);
+		for (int c = 0; c < n; c++) {
+			if (keys[c] != 0 && Double.isNaN(positional[c])) {
+				positional[c] = distanceSum[c] + footmanHpSum[c]
+						+ footmanWeight * footmanCount[c] + archerHpSum[c]
+						+ archerWeight * archerCount[c];
+				cache.store(keys[c], positional[c]);
+			}
+		}
+	}
+
+	// Copies the node's units and the next step of each footman's A* path
+	private void prepare(GameState node) {
+		parent = node;
+		List<UnitState> footmen = node.getFootmen();
+		List<UnitState> archers = node.getArchers();
+		footmanSlots = footmen.size();
+		archerSlots = archers.size();
+		if (footmanIds.length < footmanSlots) {
+			footmanIds = new int[footmanSlots];
+			parentFootmanX = new int[footmanSlots];
+			parentFootmanY = new int[footmanSlots];
+			parentFootmanHp = new int[footmanSlots];
+			footmanDamage = new int[footmanSlots];
+			hasPath = new boolean[footmanSlots];
+			pathX = new int[footmanSlots];
+			pathY = new int[footmanSlots];
+		}
+		if (archerIds.length < archerSlots) {
+			archerIds = new int[archerSlots];
+			parentArcherX = new int[archerSlots];
+			parentArcherY = new int[archerSlots];
+			parentArcherHp = new int[archerSlots];
+			archerDamage = new int[archerSlots];
+		}
+		// Children of a footman ply get the bonus for following these paths
+		Map<Integer, Stack<MapLocation>> paths = node.pathsToClosestArchers();
+		for (int s = 0; s < footmanSlots; s++) {
+			UnitState footman = footmen.get(s);
+			footmanIds[s] = footman.getId();
+			parentFootmanX[s] = footman.getXPos();
+			parentFootmanY[s] = footman.getYPos();
+			parentFootmanHp[s] = footman.getHealth();
+			footmanDamage[s] = footman.getDamage();
+			Stack<MapLocation> path = paths.get(footman.getId());
+			hasPath[s] = path != null && !path.isEmpty();
+			if (hasPath[s]) {
+				pathX[s] = path.peek().x;
+				pathY[s] = path.peek().y;
+			}
+		}
+		for (int s = 0; s < archerSlots; s++) {
+			UnitState archer = archers.get(s);
+			archerIds[s] = archer.getId();
+			parentArcherX[s] = archer.getXPos();
+			parentArcherY[s] = archer.getYPos();
+			parentArcherHp[s] = archer.getHealth();
+			archerDamage[s] = archer.getDamage();
+		}
+	}
+
+	// Fills each child's column with the parent's units, then applies the
+	// moves and attacks of its joint action
+	private void applyJointActions(List<GameStateChild> children, int from,
+			int n) {
+		for (int s = 0; s < footmanSlots; s++) {
+			Arrays.fill(footmanX, s * n, s * n + n, parentFootmanX[s]);
+			Arrays.fill(footmanY, s * n, s * n + n, parentFootmanY[s]);
+			Arrays.fill(footmanHp, s * n, s * n + n, parentFootmanHp[s]);
+		}
+		for (int s = 0; s < archerSlots; s++) {
+			Arrays.fill(archerX, s * n, s * n + n, parentArcherX[s]);
+			Arrays.fill(archerY, s * n, s * n + n, parentArcherY[s]);
+			Arrays.fill(archerHp, s * n, s * n + n, parentArcherHp[s]);
+		}
+		boolean footmenMove = parent.isFootmanTurn();
+		int[] moverIds = footmenMove ? footmanIds : archerIds;
+		int moverSlots = footmenMove ? footmanSlots : archerSlots;
+		int[] moverX = footmenMove ? footmanX : archerX;
+		int[] moverY = footmenMove ? footmanY : archerY;
+		int[] moverDamage = footmenMove ? footmanDamage : archerDamage;
+		int[] targetIds = footmenMove ? archerIds : footmanIds;
+		int targetSlots = footmenMove ? archerSlots : footmanSlots;
+		int[] targetHp = footmenMove ? archerHp : footmanHp;
+		for (int c = 0; c < n; c++) {
+			for (Action action : children.get(from + c).action.values()) {
+				int mover = slot(moverIds, moverSlots, action.getUnitId());
+				if (action.getType() == ActionType.PRIMITIVEMOVE) {
+					Direction direction = ((DirectedAction) action)
+							.getDirection();
+					moverX[mover * n + c] += direction.xComponent();
+					moverY[mover * n + c] += direction.yComponent();
+				} else {
+					int target = slot(targetIds, targetSlots,
+							((TargetedAction) action).getTargetId());
+					targetHp[target * n + c] -= moverDamage[mover];
+				}
+			}
+		}
+	}
+
+	private void removeDeadUnits(int n) {
+		Arrays.fill(footmanCount, 0, n, 0);
+		Arrays.fill(archerCount, 0, n, 0);
+		for (int s = 0; s < footmanSlots; s++) {
+			for (int c = 0; c < n; c++) {
+				int i = s * n + c;
+				if (footmanHp[i] > 0) {
+					footmanCount[c]++;
+				} else {
+					footmanX[i] = archerX[c];
+					footmanY[i] = archerY[c];
+					footmanHp[i] = 0;
+				}
+			}
+		}
+		for (int s = 0; s < archerSlots; s++) {
+			for (int c = 0; c < n; c++) {
+				int i = s * n + c;
+				if (archerHp[i] > 0) {
+					archerCount[c]++;
+				} else {
+					archerX[i] = FAR;
+					archerY[i] = FAR;
+					archerHp[i] = 0;
+				}
+			}
+		}
+	}
+
+	// The A* path bonus of child c, as GameState.pathBonusUtility computes it
+	private double pathBonus(int c, int n, double bonusWeight) {
+		double bonus = 0;
+		for (int s = 0; s < footmanSlots; s++) {
+			int i = s * n + c;
+			if (hasPath[s] && footmanHp[i] > 0 && footmanX[i] == pathX[s]
+					&& footmanY[i] == pathY[s]) {
+				bonus += bonusWeight;
+			}
+		}
+		return bonus;
+	}
+
+	private static int slot(int[] ids, int slots, int id) {
+		for (int s = 0; s < slots; s++) {
+			if (ids[s] == id) {
+				return s;
+			}
+		}
+		throw new IllegalArgumentException("No unit " + id);
+	}
+
+	private void ensureCapacity(int n) {
+		if (footmanCount.length < n) {
+			footmanCount = new int[n];
+			archerCount = new int[n];
+			minSquared = new int[n];
+			distanceSum = new double[n];
+			footmanHpSum = new double[n];
+			archerHpSum = new double[n];
+			keys = new long[n];
+			positional = new double[n];
+		}
+		if (footmanX.length < n * footmanSlots) {
+			footmanX = new int[n * footmanSlots];
+			footmanY = new int[n * footmanSlots];
+			footmanHp = new int[n * footmanSlots];
+		}
+		if (archerX.length < n * archerSlots) {
+			archerX = new int[n * archerSlots];
+			archerY = new int[n * archerSlots];
+			archerHp = new int[n * archerSlots];
+		}
+	}
+}
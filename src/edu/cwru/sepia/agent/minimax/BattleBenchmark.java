@@ -0,0 +1,68 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import edu.cwru.sepia.environment.model.state.ResourceNode.ResourceView;
+
+/**
+ * Measures first-turn search latency for N vs N battles against per unit
+ * count targets. The starting positions match the maps written by
+ * {@link BenchmarkMapGenerator} (data/Game4fv4a.xml, data/Game8fv8a.xml).
+ *
+ * The targets assume a single 2.0 GHz Xeon core running OpenJDK 17, with no
+ * other load. Each search runs on one thread, so extra cores do not change
+ * the times. On other hardware compare the times between changes rather
+ * than with the targets.
+ *
+ * java -cp bin:lib/SEPIA.jar edu.cwru.sepia.agent.minimax.BattleBenchmark
+ * [plys]
+ */
+public class BattleBenchmark {
+
+	private static final int X_EXTENT = 25;
+	private static final int Y_EXTENT = 19;
+	private static final int FOOTMAN_ROW = 5;
+	private static final int ARCHER_ROW = 13;
+	private static final int[] UNIT_COUNTS = { 2, 4, 8 };
+	// Per turn latency targets in milliseconds, indexed like UNIT_COUNTS, for
+	// the hardware described above
+	private static final long[] TARGET_MILLIS = { 250, 1000, 2000 };
+	private static final int RUNS = 5;
+
+	public static void main(String[] args) {
+		int plys = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		MinimaxAlphaBeta agent = new MinimaxAlphaBeta(0,
+				new String[] { Integer.toString(plys) });
+		for (int i = 0; i < UNIT_COUNTS.length; i++) {
+			int units = UNIT_COUNTS[i];
+			long best = Long.MAX_VALUE;
+			for (int run = 0; run < RUNS; run++) {
+				GameState.getEvaluationCache().clear();
+				GameStateChild root = new GameStateChild(null, battle(units));
+				long start = System.nanoTime();
+				agent.alphaBetaSearch(root, plys, Double.NEGATIVE_INFINITY,
+						Double.POSITIVE_INFINITY);
+				best = Math.min(best, System.nanoTime() - start);
+			}
+			long millis = best / 1000000;
+			System.out.printf("%dv%d at %d plys: %d ms (target %d ms) %s%n",
+					units, units, plys, millis, TARGET_MILLIS[i],
+					millis <= TARGET_MILLIS[i] ? "OK" : "OVER");
+		}
+	}
+
+	private static GameState battle(int units) {
+		List<ResourceView> resources = Collections.emptyList();
+		List<UnitState> footmen = new ArrayList<UnitState>();
+		List<UnitState> archers = new ArrayList<UnitState>();
+		for (int i = 0; i < units; i++) {
+			int x = 1 + (int) ((i + 0.5) * (X_EXTENT - 2) / units);
+			footmen.add(new UnitState(x, FOOTMAN_ROW, 160, 9, 1, i));
+			archers.add(new UnitState(x, ARCHER_ROW, 50, 8, 10, units + i));
+		}
+		return new GameState(X_EXTENT, Y_EXTENT, footmen, archers, resources,
+				true, null);
+	}
+}
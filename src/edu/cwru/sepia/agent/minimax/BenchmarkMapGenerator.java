@@ -0,0 +1,173 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Generates N footmen vs M archers maps for benchmarking larger battles, e.g.
+ * data/Game4fv4a.xml and data/Game8fv8a.xml.
+ *
+ * The bundled 2v2 map is used as the template so that unit templates, stats
+ * and obstacles are unchanged. Footmen are spread evenly along the template's
+ * footman row and archers along its archer row. {@link #randomStart} instead
+ * scatters the units of any map, to give matches varied starting positions.
+ *
+ * java -cp bin edu.cwru.sepia.agent.minimax.BenchmarkMapGenerator footmen
+ * archers output.xml [template.xml]
+ */
+public class BenchmarkMapGenerator {
+
+	private static final String DEFAULT_TEMPLATE = "data/Game2fv2a.xml";
+	private static final Pattern UNIT = Pattern
+			.compile("(?s)        <unit>\n.*?        </unit>\n");
+	private static final Pattern PLAYER = Pattern
+			.compile("(?s)    <player>\n        <ID>(\\d+)</ID>\n(.*?)    </player>\n");
+	private static final Pattern RESOURCE = Pattern
+			.compile("(?s)<resourceNode>.*?<xPosition>(\\d+)</xPosition>\\s*<yPosition>(\\d+)</yPosition>");
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 3) {
+			System.err.println("Usage: BenchmarkMapGenerator footmen archers "
+					+ "output.xml [template.xml]");
+			System.exit(1);
+		}
+		int numFootmen = Integer.parseInt(args[0]);
+		int numArchers = Integer.parseInt(args[1]);
+		String template = new String(Files.readAllBytes(Paths
+				.get(args.length > 3 ? args[3] : DEFAULT_TEMPLATE)),
+				StandardCharsets.UTF_8);
+		String map = generate(template, numFootmen, numArchers);
+		Files.write(Paths.get(args[2]), map.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Replaces the units of players 0 and 1 in the template map.
+	 *
+	 * @param template
+	 *            the XML of a map with at least one unit per player.
+	 * @param numFootmen
+	 *            the number of player 0 units to create.
+	 * @param numArchers
+	 *            the number of player 1 units to create.
+	 * @return the XML of the new map.
+	 */
+	public static String generate(String template, int numFootmen,
+			int numArchers) {
+		int xExtent = intAttribute(template, "xExtent");
+		int nextTargetId = Math.max(intAttribute(template, "nextTargetID"),
+				numFootmen + numArchers);
+		StringBuffer out = new StringBuffer();
+		Matcher player = PLAYER.matcher(template);
+		while (player.find()) {
+			int playerId = Integer.parseInt(player.group(1));
+			String body = player.group(2);
+			Matcher firstUnit = UNIT.matcher(body);
+			if (playerId > 1 || !firstUnit.find()) {
+				player.appendReplacement(out,
+						Matcher.quoteReplacement(player.group()));
+				continue;
+			}
+			String unit = firstUnit.group();
+			int count = playerId == 0 ? numFootmen : numArchers;
+			int firstId = playerId == 0 ? 0 : numFootmen;
+			StringBuilder units = new StringBuilder();
+			for (int i = 0; i < count; i++) {
+				// Spread evenly, leaving a one cell margin at each edge
+				int x = 1 + (int) ((i + 0.5) * (xExtent - 2) / count);
+				units.append(unit
+						.replaceFirst("<ID>\\d+</ID>", "<ID>" + (firstId + i)
+								+ "</ID>")
+						.replaceFirst("<xPosition>\\d+</xPosition>",
+								"<xPosition>" + x + "</xPosition>"));
+			}
+			String newBody = UNIT.matcher(body).replaceAll("");
+			player.appendReplacement(out, Matcher.quoteReplacement("    <player>\n        <ID>"
+					+ playerId + "</ID>\n" + units + newBody + "    </player>\n"));
+		}
+		player.appendTail(out);
+		return out.toString().replaceFirst("nextTargetID=\"\\d+\"",
+				"nextTargetID=\"" + nextTargetId + "\"");
+	}
+
+	/**
+	 * Moves every unit of players 0 and 1 to a random open cell, footmen above
+	 * the middle row and archers below it as in the bundled maps, with no two
+	 * units on one cell. Starts where some unit cannot walk to the others are
+	 * drawn again.
+	 *
+	 * @param map
+	 *            the XML of a map.
+	 * @param random
+	 *            source of the positions.
+	 * @return the XML of the map with the units moved.
+	 */
+	public static String randomStart(String map, Random random) {
+		int xExtent = intAttribute(map, "xExtent");
+		int yExtent = intAttribute(map, "yExtent");
+		boolean[] blocked = new boolean[xExtent * yExtent];
+		Matcher resource = RESOURCE.matcher(map);
+		while (resource.find()) {
+			blocked[Integer.parseInt(resource.group(2)) * xExtent
+					+ Integer.parseInt(resource.group(1))] = true;
+		}
+		MapTables tables = MapTables.forLayout(new MapLayout(xExtent,
+				yExtent, blocked));
+		while (true) {
+			boolean[] taken = blocked.clone();
+			int[] cells = new int[0];
+			StringBuffer out = new StringBuffer();
+			Matcher player = PLAYER.matcher(map);
+			while (player.find()) {
+				int playerId = Integer.parseInt(player.group(1));
+				if (playerId > 1) {
+					player.appendReplacement(out,
+							Matcher.quoteReplacement(player.group()));
+					continue;
+				}
+				int minY = playerId == 0 ? 0 : yExtent / 2 + 1;
+				int maxY = playerId == 0 ? yExtent / 2 : yExtent;
+				StringBuffer body = new StringBuffer();
+				Matcher unit = UNIT.matcher(player.group(2));
+				while (unit.find()) {
+					int cell;
+					do {
+						cell = (minY + random.nextInt(maxY - minY)) * xExtent
+								+ random.nextInt(xExtent);
+					} while (taken[cell]);
+					taken[cell] = true;
+					cells = Arrays.copyOf(cells, cells.length + 1);
+					cells[cells.length - 1] = cell;
+					unit.appendReplacement(body, Matcher.quoteReplacement(unit
+							.group()
+							.replaceFirst("<xPosition>\\d+</xPosition>",
+									"<xPosition>" + cell % xExtent
+											+ "</xPosition>")
+							.replaceFirst("<yPosition>\\d+</yPosition>",
+									"<yPosition>" + cell / xExtent
+											+ "</yPosition>")));
+				}
+				unit.appendTail(body);
+				player.appendReplacement(out, Matcher.quoteReplacement("    <player>\n        <ID>"
+						+ playerId + "</ID>\n" + body + "    </player>\n"));
+			}
+			player.appendTail(out);
+			if (cells.length == 0 || tables.connected(cells)) {
+				return out.toString();
+			}
+		}
+	}
+
+	private static int intAttribute(String xml, String name) {
+		Matcher m = Pattern.compile(name + "=\"(\\d+)\"").matcher(xml);
+		if (!m.find()) {
+			throw new IllegalArgumentException("Map has no " + name);
+		}
+		return Integer.parseInt(m.group(1));
+	}
+}
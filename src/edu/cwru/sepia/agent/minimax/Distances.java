@@ -0,0 +1,42 @@
+package edu.cwru.sepia.agent.minimax;
+
+/**
+ * Allocation free integer distance kernels between grid cells.
+ *
+ * Chebyshev distance is what SEPIA uses for attack range checks. Manhattan
+ * distance is the number of moves between two cells on an open grid, since
+ * units only move N, S, E and W. Squared Euclidean distance orders cells the
+ * same way as Euclidean distance without taking a square root.
+ */
+public final class Distances {
+
+	private Distances() {
+	}
+
+	public static int chebyshev(int x1, int y1, int x2, int y2) {
+		return Math.max(Math.abs(x1 - x2), Math.abs(y1 - y2));
+	}
+
+	public static int manhattan(int x1, int y1, int x2, int y2) {
+		return Math.abs(x1 - x2) + Math.abs(y1 - y2);
+	}
+
+	public static int squaredEuclidean(int x1, int y1, int x2, int y2) {
+		int dx = x1 - x2;
+		int dy = y1 - y2;
+		return dx * dx + dy * dy;
+	}
+
+	public static int chebyshev(UnitState a, UnitState b) {
+		return chebyshev(a.getXPos(), a.getYPos(), b.getXPos(), b.getYPos());
+	}
+
+	public static int manhattan(UnitState a, UnitState b) {
+		return manhattan(a.getXPos(), a.getYPos(), b.getXPos(), b.getYPos());
+	}
+
+	public static int squaredEuclidean(UnitState a, UnitState b) {
+		return squaredEuclidean(a.getXPos(), a.getYPos(), b.getXPos(),
+				b.getYPos());
+	}
+}
@@ -0,0 +1,291 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+import edu.cwru.sepia.action.Action;
+import edu.cwru.sepia.util.Direction;
+
+/**
+ * A read-only, memory-mapped table of solved one footman vs one archer
+ * endings, written by {@link TablebaseGenerator}.
+ *
+ * Positions are indexed by side to move, both unit cells and each unit's HP
+ * measured in hits remaining, i.e. how many attacks from the enemy it can
+ * still take. Each entry is bit-packed as (plys to the end &lt;&lt; 1 | 1 if the
+ * footman wins), or 0 if neither side can force a result.
+ *
+ * A table only holds footman HP up to maxFootmanHits. Extra footman HP never
+ * turns a footman win into a loss, so healthier footmen are looked up at the
+ * cap and only the win answers are trusted. The archer may pass in the table.
+ * With two footmen, an archer that attacks the other footman leaves the
+ * winning footman's ending as if it had passed, so one footman winning its
+ * ending wins the game whatever happens to the other, and the table also
+ * answers 2v1 endings. In a true 1v1 ending the pass only gives the archer a
+ * move it does not have, so every win still holds.
+ *
+ * A table is only used on a map with exactly the obstacle layout it was
+ * generated for, which the file stores cell by cell.
+ *
+ * The agent opens the file named by the {@value #TABLEBASE_PROPERTY} system
+ * property, defaulting to {@value #DEFAULT_TABLEBASE_FILE}.
+ */
+public class EndgameTablebase {
+
+	public static final String TABLEBASE_PROPERTY = "minimax.tablebase";
+	public static final String DEFAULT_TABLEBASE_FILE = "data/endgame.tb";
+
+	static final int MAGIC = 0x4d4d5442;
+	static final int VERSION = 2;
+	// magic, version, 2 extents, 4 unit stats, 2 caps, entry bits, followed
+	// by the MapLayout bytes and then the entries
+	static final int HEADER_BYTES = 4 * 11;
+
+	private static final Direction[] DIRECTIONS = { Direction.NORTH,
+			Direction.EAST, Direction.SOUTH, Direction.WEST };
+
+	private final int xExtent;
+	private final int yExtent;
+	private final MapLayout layout;
+	// Position of the first entry in data
+	private final int entriesOffset;
+	private final int footmanDamage;
+	private final int footmanRange;
+	private final int archerDamage;
+	private final int archerRange;
+	private final int maxFootmanHits;
+	private final int maxArcherHits;
+	private final int bitsPerEntry;
+	private final MappedByteBuffer data;
+
+	private EndgameTablebase(MappedByteBuffer data) throws IOException {
+		if (data.getInt(0) != MAGIC || data.getInt(4) != VERSION) {
+			throw new IOException("Not an endgame tablebase");
+		}
+		this.xExtent = data.getInt(8);
+		this.yExtent = data.getInt(12);
+		this.footmanDamage = data.getInt(16);
+		this.footmanRange = data.getInt(20);
+		this.archerDamage = data.getInt(24);
+		this.archerRange = data.getInt(28);
+		this.maxFootmanHits = data.getInt(32);
+		this.maxArcherHits = data.getInt(36);
+		this.bitsPerEntry = data.getInt(40);
+		this.layout = MapLayout.fromBytes(xExtent, yExtent, data,
+				HEADER_BYTES);
+		this.entriesOffset = HEADER_BYTES
+				+ MapLayout.byteCount(xExtent, yExtent);
+		this.data = data;
+	}
+
+	/**
+	 * Maps a tablebase file read-only.
+	 *
+	 * @param path
+	 *            the file written by {@link TablebaseGenerator}.
+	 * @return the tablebase.
+	 * @throws IOException
+	 *             if the file cannot be mapped or is not a tablebase.
+	 */
+	public static EndgameTablebase open(String path) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(path, "r");
+				FileChannel channel = file.getChannel()) {
+			// The mapping stays valid after the channel is closed
+			return new EndgameTablebase(channel.map(
+					FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	/**
+	 * Opens the tablebase named by the {@value #TABLEBASE_PROPERTY} system
+	 * property.
+	 *
+	 * @return the tablebase, or null if there is none.
+	 */
+	public static EndgameTablebase openConfigured() {
+		String path = System.getProperty(TABLEBASE_PROPERTY,
+				DEFAULT_TABLEBASE_FILE);
+		if (!new File(path).isFile()) {
+			return null;
+		}
+		try {
+			return open(path);
+		} catch (IOException e) {
+			System.err.println("Unable to open tablebase " + path + ": "
+					+ e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Looks up a forced win for the footmen in a position.
+	 *
+	 * @param state
+	 *            a position with the footmen to move.
+	 * @return the footmen's actions in the fastest forced win, or null if the
+	 *         position is not covered by this table or is not a known win.
+	 */
+	public Map<Integer, Action> bestAction(GameState state) {
+		if (!state.isFootmanTurn() || state.getArchers().size() != 1
+				|| state.getFootmen().isEmpty()
+				|| state.getFootmen().size() > 2
+				|| state.getXExtent() != xExtent
+				|| state.getYExtent() != yExtent
+				|| !layout.equals(MapLayout.of(xExtent, yExtent,
+						state.getResources()))) {
+			return null;
+		}
+		UnitState archer = state.getArchers().get(0);
+		int archerCell = cell(archer.getXPos(), archer.getYPos());
+		UnitState winner = null;
+		int winnerDtm = Integer.MAX_VALUE;
+		for (UnitState footman : state.getFootmen()) {
+			if (footman.getDamage() != footmanDamage
+					|| footman.getRange() != footmanRange
+					|| archer.getDamage() != archerDamage
+					|| archer.getRange() != archerRange) {
+				return null;
+			}
+			int entry = entry(true, cell(footman.getXPos(), footman.getYPos()),
+					archerCell, footmanHits(footman), archerHits(archer));
+			if (isWin(entry) && (entry >>> 1) < winnerDtm) {
+				winner = footman;
+				winnerDtm = entry >>> 1;
+			}
+		}
+		if (winner == null) {
+			return null;
+		}
+		Map<Integer, Action> actions = new HashMap<Integer, Action>();
+		actions.put(winner.getId(), winningAction(winner, archer));
+		for (UnitState footman : state.getFootmen()) {
+			Action approach = approachAction(footman, archer);
+			if (footman != winner && approach != null) {
+				actions.put(footman.getId(), approach);
+			}
+		}
+		return actions;
+	}
+
+	// The action leading to a child won in the fewest plys
+	private Action winningAction(UnitState footman, UnitState archer) {
+		int footmanCell = cell(footman.getXPos(), footman.getYPos());
+		int archerCell = cell(archer.getXPos(), archer.getYPos());
+		int footmanHits = footmanHits(footman);
+		int archerHits = archerHits(archer);
+		Action best = null;
+		int bestDtm = Integer.MAX_VALUE;
+		if (inFootmanRange(footman.getXPos(), footman.getYPos(), archer)) {
+			int entry = entry(false, footmanCell, archerCell, footmanHits,
+					archerHits - 1);
+			if (archerHits == 1 || isWin(entry)) {
+				best = Action.createPrimitiveAttack(footman.getId(),
+						archer.getId());
+				bestDtm = archerHits == 1 ? 0 : entry >>> 1;
+			}
+		}
+		for (Direction direction : DIRECTIONS) {
+			int x = footman.getXPos() + direction.xComponent();
+			int y = footman.getYPos() + direction.yComponent();
+			if (!isOpen(x, y)) {
+				continue;
+			}
+			int entry = entry(false, cell(x, y), archerCell, footmanHits,
+					archerHits);
+			if (isWin(entry) && (entry >>> 1) < bestDtm) {
+				best = Action.createPrimitiveMove(footman.getId(), direction);
+				bestDtm = entry >>> 1;
+			}
+		}
+		return best;
+	}
+
+	// Any reasonable action for a footman the table is not playing for
+	private Action approachAction(UnitState footman, UnitState archer) {
+		if (inFootmanRange(footman.getXPos(), footman.getYPos(), archer)) {
+			return Action.createPrimitiveAttack(footman.getId(),
+					archer.getId());
+		}
+		Action best = null;
+		int bestDist = Integer.MAX_VALUE;
+		for (Direction direction : DIRECTIONS) {
+			int x = footman.getXPos() + direction.xComponent();
+			int y = footman.getYPos() + direction.yComponent();
+			int dist = Distances.manhattan(x, y, archer.getXPos(),
+					archer.getYPos());
+			if (isOpen(x, y) && dist < bestDist) {
+				best = Action.createPrimitiveMove(footman.getId(), direction);
+				bestDist = dist;
+			}
+		}
+		return best;
+	}
+
+	private boolean inFootmanRange(int x, int y, UnitState archer) {
+		return Distances.chebyshev(x, y, archer.getXPos(), archer.getYPos()) <= footmanRange;
+	}
+
+	private boolean isOpen(int x, int y) {
+		return 0 <= x && 0 <= y && x < xExtent && y < yExtent
+				&& !layout.isBlocked(cell(x, y));
+	}
+
+	private int footmanHits(UnitState footman) {
+		return Math.min(hits(footman.getHealth(), archerDamage), maxFootmanHits);
+	}
+
+	private int archerHits(UnitState archer) {
+		return hits(archer.getHealth(), footmanDamage);
+	}
+
+	private int cell(int x, int y) {
+		return y * xExtent + x;
+	}
+
+	// Reads an entry, or 0 if the position is outside the table
+	private int entry(boolean footmanToMove, int footmanCell, int archerCell,
+			int footmanHits, int archerHits) {
+		if (archerHits < 1 || archerHits > maxArcherHits || footmanHits < 1) {
+			return 0;
+		}
+		long bit = (long) index(footmanToMove, footmanCell, archerCell,
+				footmanHits, archerHits, xExtent * yExtent, maxFootmanHits,
+				maxArcherHits) * bitsPerEntry;
+		int offset = entriesOffset + (int) (bit >>> 3);
+		int word = 0;
+		for (int i = 0; i < 3 && offset + i < data.limit(); i++) {
+			word |= (data.get(offset + i) & 0xFF) << (8 * i);
+		}
+		return (word >>> (bit & 7)) & ((1 << bitsPerEntry) - 1);
+	}
+
+	private static boolean isWin(int entry) {
+		return entry != 0 && (entry & 1) == 1;
+	}
+
+	/**
+	 * The position of an entry in the table.
+	 */
+	static int index(boolean footmanToMove, int footmanCell, int archerCell,
+			int footmanHits, int archerHits, int cells, int maxFootmanHits,
+			int maxArcherHits) {
+		int side = footmanToMove ? 0 : 1;
+		return (((side * maxArcherHits + archerHits - 1) * maxFootmanHits
+				+ footmanHits - 1)
+				* cells + archerCell)
+				* cells + footmanCell;
+	}
+
+	/**
+	 * The number of attacks a unit survives before the next one kills it.
+	 */
+	static int hits(int health, int damage) {
+		return (health + damage - 1) / damage;
+	}
+
+}
@@ -0,0 +1,197 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import edu.cwru.sepia.action.Action;
+import edu.cwru.sepia.environment.model.state.ResourceNode.ResourceView;
+
+/**
+ * Micro benchmark for the static evaluation. Times the uncached positional
+ * part of {@link GameState#getUtility()} over random 2 footman vs 2 archer
+ * positions on the 25x19 bundled grid, next to the Point2D nearest enemy
+ * computation it replaced. Then times scoring every child of a node one ply
+ * above the horizon, once by building the children and calling getUtility()
+ * on each and once from the joint actions through {@link BatchEvaluator}, as
+ * the search does. Both start from an empty evaluation cache.
+ *
+ * java -cp bin:lib/SEPIA.jar edu.cwru.sepia.agent.minimax.EvaluationBenchmark
+ * [rounds]
+ */
+public class EvaluationBenchmark {
+
+	private static final int X_EXTENT = 25;
+	private static final int Y_EXTENT = 19;
+	private static final int STATES = 4096;
+	private static final int WARMUP_ROUNDS = 200;
+	// Nodes whose children are scored, half of them on each side's turn
+	private static final int NODES = 256;
+	private static final int NODE_ROUNDS_DIVISOR = 10;
+
+	public static void main(String[] args) {
+		int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		GameState[] states = randomStates(new Random(0));
+		GameState[] nodes = new GameState[NODES];
+		System.arraycopy(states, 0, nodes, 0, NODES);
+		BatchEvaluator batchEvaluator = new BatchEvaluator();
+
+		// Every kernel is timed compiled, and the batch must agree exactly
+		double sink = 0;
+		for (int r = 0; r < WARMUP_ROUNDS; r++) {
+			sink += evaluateAll(states) + pointDistanceAll(states);
+		}
+		for (int r = 0; r < WARMUP_ROUNDS / NODE_ROUNDS_DIVISOR; r++) {
+			sink += scoreChildrenAll(nodes)
+					+ batchScoreChildrenAll(batchEvaluator, nodes);
+		}
+		checkBatch(batchEvaluator, nodes);
+
+		long start = System.nanoTime();
+		for (int r = 0; r < rounds; r++) {
+			sink += evaluateAll(states);
+		}
+		long evalNanos = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for (int r = 0; r < rounds; r++) {
+			sink += pointDistanceAll(states);
+		}
+		long pointNanos = System.nanoTime() - start;
+
+		int nodeRounds = Math.max(1, rounds / NODE_ROUNDS_DIVISOR);
+		GameState.getEvaluationCache().clear();
+		start = System.nanoTime();
+		for (int r = 0; r < nodeRounds; r++) {
+			sink += scoreChildrenAll(nodes);
+		}
+		long childrenNanos = System.nanoTime() - start;
+
+		GameState.getEvaluationCache().clear();
+		start = System.nanoTime();
+		for (int r = 0; r < nodeRounds; r++) {
+			sink += batchScoreChildrenAll(batchEvaluator, nodes);
+		}
+		long batchNanos = System.nanoTime() - start;
+
+		long evaluations = (long) rounds * STATES;
+		long scored = (long) nodeRounds * NODES;
+		System.out.printf("positional utility:     %.1f ns/evaluation%n",
+				(double) evalNanos / evaluations);
+		System.out.printf("Point2D distances only: %.1f ns/evaluation%n",
+				(double) pointNanos / evaluations);
+		System.out.printf("getChildren, getUtility each: %.2f us/node%n",
+				childrenNanos / 1e3 / scored);
+		System.out.printf("joint actions, batched:       %.2f us/node%n",
+				batchNanos / 1e3 / scored);
+		System.out.println("(checksum " + sink + ")");
+	}
+
+	private static double evaluateAll(GameState[] states) {
+		double sum = 0;
+		for (GameState state : states) {
+			sum += state.positionalUtility();
+		}
+		return sum;
+	}
+
+	private static double scoreChildrenAll(GameState[] nodes) {
+		double sum = 0;
+		for (GameState node : nodes) {
+			for (GameStateChild child : node.getChildren()) {
+				sum += child.state.getUtility();
+			}
+		}
+		return sum;
+	}
+
+	private static double batchScoreChildrenAll(BatchEvaluator batchEvaluator,
+			GameState[] nodes) {
+		double sum = 0;
+		for (GameState node : nodes) {
+			List<GameStateChild> children = leafChildren(node);
+			double[] values = new double[children.size()];
+			batchEvaluator.evaluate(node, children, 0, children.size(), values);
+			for (double value : values) {
+				sum += value;
+			}
+		}
+		return sum;
+	}
+
+	// Both paths share the evaluation cache, so each starts from an empty
+	// one to compare what they compute rather than what the other stored
+	private static void checkBatch(BatchEvaluator batchEvaluator,
+			GameState[] nodes) {
+		GameState.getEvaluationCache().clear();
+		double[][] batched = new double[nodes.length][];
+		for (int n = 0; n < nodes.length; n++) {
+			List<GameStateChild> children = leafChildren(nodes[n]);
+			batched[n] = new double[children.size()];
+			batchEvaluator.evaluate(nodes[n], children, 0, children.size(),
+					batched[n]);
+		}
+		GameState.getEvaluationCache().clear();
+		for (int n = 0; n < nodes.length; n++) {
+			List<GameStateChild> expected = nodes[n].getChildren();
+			double[] values = batched[n];
+			for (int i = 0; i < values.length; i++) {
+				double utility = expected.get(i).state.getUtility();
+				if (values[i] != utility) {
+					throw new IllegalStateException("Batched utility "
+							+ values[i] + " differs from " + utility);
+				}
+			}
+		}
+	}
+
+	private static List<GameStateChild> leafChildren(GameState node) {
+		List<GameStateChild> children = new ArrayList<GameStateChild>();
+		for (Map<Integer, Action> action : node.getJointActions()) {
+			children.add(new GameStateChild(action, null));
+		}
+		return children;
+	}
+
+	// The nearest enemy distance as GameState computed it before
+	private static double pointDistanceAll(GameState[] states) {
+		double sum = 0;
+		for (GameState state : states) {
+			for (UnitState footman : state.getFootmen()) {
+				int min = Integer.MAX_VALUE;
+				Point2D footmanLoc = new Point2D.Double(footman.getXPos(),
+						footman.getYPos());
+				for (UnitState archer : state.getArchers()) {
+					Point2D archerLoc = new Point2D.Double(archer.getXPos(),
+							archer.getYPos());
+					min = (int) Math.min(min,
+							Math.abs(footmanLoc.distance(archerLoc)));
+				}
+				sum += min;
+			}
+		}
+		return sum;
+	}
+
+	private static GameState[] randomStates(Random random) {
+		List<ResourceView> resources = Collections.emptyList();
+		GameState[] states = new GameState[STATES];
+		for (int i = 0; i < STATES; i++) {
+			List<UnitState> footmen = new ArrayList<UnitState>();
+			List<UnitState> archers = new ArrayList<UnitState>();
+			for (int id = 0; id < 2; id++) {
+				footmen.add(new UnitState(random.nextInt(X_EXTENT), random
+						.nextInt(Y_EXTENT), 1 + random.nextInt(160), 10, 1, id));
+				archers.add(new UnitState(random.nextInt(X_EXTENT), random
+						.nextInt(Y_EXTENT), 1 + random.nextInt(50), 6, 8,
+						id + 2));
+			}
+			states[i] = new GameState(X_EXTENT, Y_EXTENT, footmen, archers,
+					resources, i % 2 == 0, null);
+		}
+		return states;
+	}
+}
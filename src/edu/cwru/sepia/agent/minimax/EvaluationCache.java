@@ -0,0 +1,106 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded, lock-free cache of static evaluations keyed by a 64-bit state
+ * hash.
+ *
+ * The table is direct-mapped: each key has exactly one slot and a store always
+ * replaces whatever occupied that slot before (newest entry wins). Every slot
+ * holds the key XORed with the value bits alongside the value bits, so a slot
+ * torn by two threads writing at once simply fails the key check on lookup
+ * and reads as a miss. This makes one instance safe to share between worker
+ * threads without any locking.
+ *
+ * The key 0 is reserved for empty slots and must not be used.
+ */
+public class EvaluationCache {
+
+	private final AtomicLongArray checks;
+	private final AtomicLongArray values;
+	private final int mask;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * Creates a new {@link EvaluationCache}.
+	 *
+	 * @param capacity
+	 *            the number of slots, rounded up to a power of two.
+	 */
+	public EvaluationCache(int capacity) {
+		int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+		this.checks = new AtomicLongArray(size);
+		this.values = new AtomicLongArray(size);
+		this.mask = size - 1;
+	}
+
+	/**
+	 * Looks up the evaluation stored for the given key.
+	 *
+	 * @param key
+	 *            the state hash, must not be 0.
+	 * @return the cached value, or {@link Double#NaN} if there is none.
+	 */
+	public double lookup(long key) {
+		int slot = slot(key);
+		long bits = values.get(slot);
+		if ((checks.get(slot) ^ bits) == key) {
+			hits.increment();
+			return Double.longBitsToDouble(bits);
+		}
+		misses.increment();
+		return Double.NaN;
+	}
+
+	/**
+	 * Stores an evaluation, evicting whatever was in the key's slot.
+	 *
+	 * @param key
+	 *            the state hash, must not be 0.
+	 * @param value
+	 *            the evaluation of the state.
+	 */
+	public void store(long key, double value) {
+		int slot = slot(key);
+		long bits = Double.doubleToRawLongBits(value);
+		values.lazySet(slot, bits);
+		checks.lazySet(slot, key ^ bits);
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public int getCapacity() {
+		return mask + 1;
+	}
+
+	/**
+	 * Empties the cache and resets the hit and miss counters.
+	 */
+	public void clear() {
+		for (int i = 0; i <= mask; i++) {
+			checks.set(i, 0);
+			values.set(i, 0);
+		}
+		hits.reset();
+		misses.reset();
+	}
+
+	private int slot(long key) {
+		return (int) (key ^ (key >>> 32)) & mask;
+	}
+
+	@Override
+	public String toString() {
+		return "EvaluationCache[capacity=" + getCapacity() + ", hits="
+				+ getHits() + ", misses=" + getMisses() + "]";
+	}
+}
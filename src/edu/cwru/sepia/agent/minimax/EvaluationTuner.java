@@ -0,0 +1,189 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Offline tuner for {@link EvaluationWeights} using SPSA (simultaneous
+ * perturbation stochastic approximation).
+ *
+ * Every iteration perturbs all weights at once in a random +/- direction,
+ * plays headless games against ArcherAgent with both the plus and the minus
+ * vector on every map and steps along the estimated gradient of the match
+ * score. Each iteration draws new random starts for its games, and the plus
+ * and minus vectors play the same ones, so the difference in their scores
+ * comes from the weights rather than from the starts. A game scores 0 for a
+ * loss and between 0.5 and 1 for a win, higher the shorter it was, so the
+ * tuner favours weights that win and win quickly at a fixed search depth.
+ *
+ * Games are played through {@link HeadlessMatch} and spread over one worker
+ * per core. Run from the project root with SEPIA.jar and the archer agent on
+ * the classpath:
+ *
+ * java -cp bin:lib/SEPIA.jar:archer_agent
+ * edu.cwru.sepia.agent.minimax.EvaluationTuner plys iterations gamesPerMap
+ * output.properties [map.xml ...]
+ */
+public class EvaluationTuner {
+
+	// Games taking longer than this many turns score as slow wins
+	private static final int TURN_SCALE = 500;
+	// SPSA gain sequence parameters, see Spall 1998
+	private static final double STEP_SIZE = 0.5;
+	private static final double PERTURBATION = 0.1;
+	private static final double STABILITY = 10;
+
+	private final int numPlys;
+	private final int gamesPerMap;
+	private final List<String> maps;
+	private final File workDir;
+	private final ExecutorService pool;
+
+	public EvaluationTuner(int numPlys, int gamesPerMap, List<String> maps)
+			throws IOException {
+		this.numPlys = numPlys;
+		this.gamesPerMap = gamesPerMap;
+		this.maps = maps;
+		this.workDir = Files.createTempDirectory("minimax-tuner").toFile();
+		this.pool = Executors.newFixedThreadPool(Runtime.getRuntime()
+				.availableProcessors());
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 4) {
+			System.err.println("Usage: EvaluationTuner plys iterations "
+					+ "gamesPerMap output.properties [map.xml ...]");
+			System.exit(1);
+		}
+		int plys = Integer.parseInt(args[0]);
+		int iterations = Integer.parseInt(args[1]);
+		int gamesPerMap = Integer.parseInt(args[2]);
+		String output = args[3];
+		List<String> maps = args.length > 4 ? Arrays.asList(args).subList(4,
+				args.length) : HeadlessMatch.BUNDLED_MAPS;
+
+		EvaluationTuner tuner = new EvaluationTuner(plys, gamesPerMap, maps);
+		try {
+			EvaluationWeights tuned = tuner.tune(
+					EvaluationWeights.loadConfigured(), iterations,
+					new Random(0));
+			tuned.save(output, "Tuned by EvaluationTuner at " + plys
+					+ " plys over " + iterations + " iterations");
+			System.out.println("Wrote " + tuned + " to " + output);
+		} finally {
+			tuner.shutdown();
+		}
+	}
+
+	/**
+	 * Runs SPSA from the given starting weights.
+	 *
+	 * @param start
+	 *            the initial weights.
+	 * @param iterations
+	 *            the number of SPSA iterations.
+	 * @param random
+	 *            source of the starts and the perturbation directions.
+	 * @return the tuned weights.
+	 */
+	public EvaluationWeights tune(EvaluationWeights start, int iterations,
+			Random random) throws IOException, InterruptedException,
+			ExecutionException {
+		double[] scale = start.toArray();
+		for (int i = 0; i < scale.length; i++) {
+			scale[i] = Math.max(1, Math.abs(scale[i]));
+		}
+		// Optimise in units of each weight's starting magnitude so that one
+		// step size suits all of them
+		double[] theta = new double[scale.length];
+		for (int i = 0; i < theta.length; i++) {
+			theta[i] = start.get(i) / scale[i];
+		}
+		for (int k = 0; k < iterations; k++) {
+			double a = STEP_SIZE / Math.pow(k + 1 + STABILITY, 0.602);
+			double c = PERTURBATION / Math.pow(k + 1, 0.101);
+			double[] delta = new double[theta.length];
+			double[] plus = new double[theta.length];
+			double[] minus = new double[theta.length];
+			for (int i = 0; i < theta.length; i++) {
+				delta[i] = random.nextBoolean() ? 1 : -1;
+				plus[i] = (theta[i] + c * delta[i]) * scale[i];
+				minus[i] = (theta[i] - c * delta[i]) * scale[i];
+			}
+			double[] scores = score(randomStarts(random),
+					new EvaluationWeights(plus), new EvaluationWeights(minus));
+			for (int i = 0; i < theta.length; i++) {
+				theta[i] += a * (scores[0] - scores[1]) / (2 * c * delta[i]);
+			}
+			System.out.printf("iteration %d: plus %.3f, minus %.3f%n", k,
+					scores[0], scores[1]);
+		}
+		double[] tuned = new double[theta.length];
+		for (int i = 0; i < theta.length; i++) {
+			tuned[i] = theta[i] * scale[i];
+		}
+		return new EvaluationWeights(tuned);
+	}
+
+	// Configurations for gamesPerMap random starts on every map
+	private List<File> randomStarts(Random random) throws IOException {
+		List<File> configs = new ArrayList<File>();
+		for (String map : maps) {
+			for (int i = 0; i < gamesPerMap; i++) {
+				configs.add(HeadlessMatch.writeConfig(workDir, HeadlessMatch
+						.writeRandomStart(workDir, map, random), Arrays
+						.asList(Integer.toString(numPlys))));
+			}
+		}
+		return configs;
+	}
+
+	/**
+	 * Plays every configuration once with each set of weights, all in
+	 * parallel, and returns the mean score of each.
+	 */
+	private double[] score(List<File> configs,
+			EvaluationWeights... candidates)
+			throws IOException, InterruptedException, ExecutionException {
+		List<List<Future<Double>>> games = new ArrayList<List<Future<Double>>>();
+		for (EvaluationWeights weights : candidates) {
+			File weightsFile = File.createTempFile("weights", ".properties",
+					workDir);
+			weights.save(weightsFile.getPath(), null);
+			List<Future<Double>> results = new ArrayList<Future<Double>>();
+			for (File config : configs) {
+				results.add(pool.submit(() -> scoreGame(HeadlessMatch.play(
+						config, weightsFile))));
+			}
+			games.add(results);
+		}
+		double[] scores = new double[candidates.length];
+		for (int i = 0; i < candidates.length; i++) {
+			for (Future<Double> result : games.get(i)) {
+				scores[i] += result.get();
+			}
+			scores[i] /= games.get(i).size();
+		}
+		return scores;
+	}
+
+	private static double scoreGame(HeadlessMatch.Result result) {
+		if (!result.won) {
+			return 0;
+		}
+		return 1 - 0.5 * Math.min(result.turns, TURN_SCALE) / TURN_SCALE;
+	}
+
+	public void shutdown() {
+		pool.shutdownNow();
+	}
+}
@@ -0,0 +1,178 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * The weight vector used by {@link GameState#getUtility()}. Weights are read
+ * from a properties file so they can be tuned without recompiling, see
+ * {@link EvaluationTuner}.
+ *
+ * The file used by the agent is given by the {@value #WEIGHTS_PROPERTY} system
+ * property and defaults to {@value #DEFAULT_WEIGHTS_FILE}. Any weight missing
+ * from the file keeps its default value.
+ */
+public class EvaluationWeights {
+
+	public static final String WEIGHTS_PROPERTY = "minimax.weights";
+	public static final String DEFAULT_WEIGHTS_FILE = "data/weights.properties";
+
+	public static final int DISTANCE = 0;
+	public static final int FOOTMAN_HP = 1;
+	public static final int FOOTMAN = 2;
+	public static final int ARCHER_HP = 3;
+	public static final int ARCHER = 4;
+	public static final int A_STAR_PATH_BONUS = 5;
+
+	// Property keys, indexed by the constants above
+	private static final String[] NAMES = { "distance", "footmanHp",
+			"footman", "archerHp", "archer", "aStarPathBonus" };
+	private static final double[] DEFAULTS = { -1, 4, 20, -10, -50, 15 };
+
+	private final double[] weights;
+
+	/**
+	 * Creates a new {@link EvaluationWeights} from a raw weight vector.
+	 *
+	 * @param weights
+	 *            one weight per feature, in the order of the index constants.
+	 */
+	public EvaluationWeights(double[] weights) {
+		if (weights.length != NAMES.length) {
+			throw new IllegalArgumentException("Expected " + NAMES.length
+					+ " weights but got " + weights.length);
+		}
+		this.weights = weights.clone();
+	}
+
+	public static EvaluationWeights defaults() {
+		return new EvaluationWeights(DEFAULTS);
+	}
+
+	/**
+	 * Loads the weights named by the {@value #WEIGHTS_PROPERTY} system
+	 * property, falling back to the defaults if the file does not exist.
+	 *
+	 * @return the weights the agent should play with.
+	 */
+	public static EvaluationWeights loadConfigured() {
+		String path = System.getProperty(WEIGHTS_PROPERTY,
+				DEFAULT_WEIGHTS_FILE);
+		if (!new File(path).isFile()) {
+			return defaults();
+		}
+		try {
+			return load(path);
+		} catch (IOException e) {
+			System.err.println("Unable to read weights from " + path
+					+ ", using defaults: " + e.getMessage());
+			return defaults();
+		}
+	}
+
+	/**
+	 * Reads weights from a properties file.
+	 *
+	 * @param path
+	 *            the file to read.
+	 * @return the weights in the file, with defaults for any that are missing.
+	 * @throws IOException
+	 *             if the file cannot be read or a weight is not a number.
+	 */
+	public static EvaluationWeights load(String path) throws IOException {
+		Properties props = new Properties();
+		try (InputStream in = new FileInputStream(path)) {
+			props.load(in);
+		}
+		double[] weights = DEFAULTS.clone();
+		for (int i = 0; i < NAMES.length; i++) {
+			String value = props.getProperty(NAMES[i]);
+			if (value != null) {
+				try {
+					weights[i] = Double.parseDouble(value.trim());
+				} catch (NumberFormatException e) {
+					throw new IOException("Invalid value for " + NAMES[i]
+							+ ": " + value, e);
+				}
+			}
+		}
+		return new EvaluationWeights(weights);
+	}
+
+	/**
+	 * Writes these weights to a properties file readable by
+	 * {@link #load(String)}.
+	 *
+	 * @param path
+	 *            the file to write.
+	 * @param comment
+	 *            a comment to put at the top of the file.
+	 * @throws IOException
+	 *             if the file cannot be written.
+	 */
+	public void save(String path, String comment) throws IOException {
+		Properties props = new Properties();
+		for (int i = 0; i < NAMES.length; i++) {
+			props.setProperty(NAMES[i], Double.toString(weights[i]));
+		}
+		try (OutputStream out = new FileOutputStream(path)) {
+			props.store(out, comment);
+		}
+	}
+
+	public double get(int feature) {
+		return weights[feature];
+	}
+
+	public int size() {
+		return weights.length;
+	}
+
+	public double[] toArray() {
+		return weights.clone();
+	}
+
+	/**
+	 * A hash of the weight vector, mixed into evaluation cache keys so that
+	 * values computed under different weights never collide.
+	 *
+	 * @return a hash of the weights.
+	 */
+	public long fingerprint() {
+		long hash = 1;
+		for (double weight : weights) {
+			hash = 31 * hash + Double.doubleToLongBits(weight);
+		}
+		return hash;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("{");
+		for (int i = 0; i < NAMES.length; i++) {
+			sb.append(i == 0 ? "" : ", ").append(NAMES[i]).append('=')
+					.append(weights[i]);
+		}
+		return sb.append('}').toString();
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(weights);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null || getClass() != obj.getClass())
+			return false;
+		return Arrays.equals(weights, ((EvaluationWeights) obj).weights);
+	}
+}
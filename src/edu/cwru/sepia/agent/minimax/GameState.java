@@ -1,15 +1,12 @@
 package edu.cwru.sepia.agent.minimax;
 
-import java.awt.geom.Point2D;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Set;
 import java.util.Stack;
 
 import edu.cwru.sepia.action.Action;
@@ -33,21 +30,19 @@ import edu.cwru.sepia.util.Direction;
  */
 public class GameState {
 
-	private static final int DISTANCE_WEIGHT = -1;
-	private static final int FOOTMAN_HP_WEIGHT = 4;
-	private static final int FOOTMAN_WIEGHT = 20;
-	private static final int ARCHER_HP_WEIGHT = -10;
-	private static final int ARCHER_WEIGHT = -50;
-	private static final int A_STAR_PATH_BONUS = 15;
-	// Create a set of just N,S,E,W for iteration.
-	private static final Set<Direction> VALID_DIRECTIONS = new HashSet<Direction>();
-	{
-		VALID_DIRECTIONS.add(Direction.NORTH);
-		VALID_DIRECTIONS.add(Direction.WEST);
-		VALID_DIRECTIONS.add(Direction.EAST);
-		VALID_DIRECTIONS.add(Direction.SOUTH);
-	}
+	// Loaded once per JVM, see EvaluationWeights for the config file
+	private static volatile EvaluationWeights weights = EvaluationWeights
+			.loadConfigured();
 	private static final AStarHelper aStarHelper = new AStarHelper();
+	// Above this many joint actions per ply children come from the cross
+	// product of each unit's best actions instead of all of them
+	public static final int DEFAULT_JOINT_ACTION_BUDGET = 64;
+	// Ranking bonus for attacks over moves
+	private static final double ATTACK_SCORE = 1000;
+	private static volatile int jointActionBudget = DEFAULT_JOINT_ACTION_BUDGET;
+	// Shared by every search, keyed on stateHash()
+	private static final EvaluationCache evaluationCache = new EvaluationCache(
+			1 << 16);
 
 	private final int xExtent;
 	private final int yExtent;
@@ -56,6 +51,8 @@ public class GameState {
 	private final List<UnitState> archers;
 	private final boolean isFootmanTurn;
 	private final Map<Integer, Stack<MapLocation>> aStarResult;
+	// Shared by every state of the episode
+	private final MapTables tables;
 
 	/**
 	 * You will implement this constructor. It will extract all of the needed
@@ -88,11 +85,20 @@ public class GameState {
 		this.archers = createUnitStates(state.getUnits(1));
 		this.isFootmanTurn = true;
 		this.aStarResult = null;
+		this.tables = MapTables.forMap(xExtent, yExtent, resources);
 	}
 
 	public GameState(int xBound, int yBound, List<UnitState> foots,
 			List<UnitState> archs, List<ResourceView> resourceList,
 			boolean isFootmanTurn, Map<Integer, Stack<MapLocation>> aStarResult) {
+		this(xBound, yBound, foots, archs, resourceList, isFootmanTurn,
+				aStarResult, MapTables.forMap(xBound, yBound, resourceList));
+	}
+
+	private GameState(int xBound, int yBound, List<UnitState> foots,
+			List<UnitState> archs, List<ResourceView> resourceList,
+			boolean isFootmanTurn,
+			Map<Integer, Stack<MapLocation>> aStarResult, MapTables tables) {
 		this.xExtent = xBound;
 		this.yExtent = yBound;
 		this.footmen = foots;
@@ -100,12 +106,105 @@ public class GameState {
 		this.resources = resourceList;
 		this.isFootmanTurn = isFootmanTurn;
 		this.aStarResult = aStarResult;
+		this.tables = tables;
 	}
 
 	public boolean isTerminal() {
 		return archers.isEmpty() || footmen.isEmpty();
 	}
 
+	public boolean isFootmanTurn() {
+		return isFootmanTurn;
+	}
+
+	public int getXExtent() {
+		return xExtent;
+	}
+
+	public int getYExtent() {
+		return yExtent;
+	}
+
+	public List<ResourceView> getResources() {
+		return resources;
+	}
+
+	public List<UnitState> getFootmen() {
+		return footmen;
+	}
+
+	public List<UnitState> getArchers() {
+		return archers;
+	}
+
+	public static EvaluationCache getEvaluationCache() {
+		return evaluationCache;
+	}
+
+	public static EvaluationWeights getWeights() {
+		return weights;
+	}
+
+	public static void setWeights(EvaluationWeights newWeights) {
+		weights = newWeights;
+	}
+
+	public static int getJointActionBudget() {
+		return jointActionBudget;
+	}
+
+	public static void setJointActionBudget(int budget) {
+		jointActionBudget = budget;
+	}
+
+	/**
+	 * Computes a 64-bit hash of everything the static evaluation depends on:
+	 * the position and health of every unit, whose turn it is and the current
+	 * evaluation weights. Equivalent
+	 * positions reached through different move orders hash the same.
+	 *
+	 * @return a non-zero hash of this state.
+	 */
+	public long stateHash() {
+		long hash = hashTurn(isFootmanTurn);
+		hash = hashUnits(hash, footmen);
+		hash = hashUnits(hash, archers);
+		return hash == 0 ? 1 : hash;
+	}
+
+	private long hashUnits(long hash, List<UnitState> units) {
+		for (UnitState unit : units) {
+			hash = hashUnit(hash, unit.getId(), unit.getXPos(),
+					unit.getYPos(), unit.getHealth());
+		}
+		return hashCount(hash, units.size());
+	}
+
+	// The steps of stateHash, so that BatchEvaluator can hash children it
+	// never builds: the turn and weights first, then each footman, the
+	// footman count, each archer and the archer count.
+	static long hashTurn(boolean footmanTurn) {
+		return (footmanTurn ? 0x9E3779B97F4A7C15L : 0x632BE59BD9B4E019L)
+				^ weights.fingerprint();
+	}
+
+	static long hashUnit(long hash, int id, int x, int y, int health) {
+		long packed = ((long) id << 48) | ((long) (x & 0xFFFF) << 32)
+				| ((long) (y & 0xFFFF) << 16) | (health & 0xFFFF);
+		return mix(hash ^ packed);
+	}
+
+	static long hashCount(long hash, int count) {
+		return mix(hash + count);
+	}
+
+	// SplitMix64 finaliser
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
 	private List<UnitState> createUnitStates(List<UnitView> units) {
 		List<UnitState> unitStates = new ArrayList<UnitState>();
 		for (UnitView view : units) {
@@ -140,68 +239,84 @@ public class GameState {
 	 */
 	public double getUtility() {
 		if (isTerminal()) {
-			return footmen.isEmpty() ? Integer.MAX_VALUE : Integer.MIN_VALUE;
+			return footmen.isEmpty() ? Integer.MIN_VALUE : Integer.MAX_VALUE;
+		}
+		// The A* bonus depends on the parent's paths rather than on this
+		// position alone, so only the positional features are cached.
+		long key = stateHash();
+		double utility = evaluationCache.lookup(key);
+		if (Double.isNaN(utility)) {
+			utility = positionalUtility();
+			evaluationCache.store(key, utility);
 		}
+		return utility + pathBonusUtility();
+	}
 
-		int totalUtility = 0;
+	// Weighted sum of the features that depend only on unit positions and
+	// health. Package-private so EvaluationBenchmark can time it uncached.
+	double positionalUtility() {
+		EvaluationWeights w = weights;
+		double totalUtility = 0;
 		// negative Distance to archers
-		int distanceToArchers = 0;
+		double distanceToArchers = 0;
 		for (UnitState footman : footmen) {
-			distanceToArchers += DISTANCE_WEIGHT
+			distanceToArchers += w.get(EvaluationWeights.DISTANCE)
 					* distToClosestEnemy(footman, archers);
 		}
 		totalUtility += distanceToArchers;
 		// positive footman health remaining
-		int footmanHealth = 0;
+		double footmanHealth = 0;
 		for (UnitState footman : footmen) {
-			footmanHealth += footman.getHealth() * FOOTMAN_HP_WEIGHT;
+			footmanHealth += footman.getHealth()
+					* w.get(EvaluationWeights.FOOTMAN_HP);
 		}
 		totalUtility += footmanHealth;
 		// positive footmen alive (medium)
-		int footmenAlive = FOOTMAN_WIEGHT * footmen.size();
+		double footmenAlive = w.get(EvaluationWeights.FOOTMAN) * footmen.size();
 		totalUtility += footmenAlive;
 		// negative archer health remaining (high)
-		int archerHealth = 0;
+		double archerHealth = 0;
 		for (UnitState archer : archers) {
-			archerHealth = archer.getHealth() * ARCHER_HP_WEIGHT;
+			archerHealth += archer.getHealth()
+					* w.get(EvaluationWeights.ARCHER_HP);
 		}
 		totalUtility += archerHealth;
 		// negative archer alive (high)
-		int archersAlive = ARCHER_WEIGHT * archers.size();
+		double archersAlive = w.get(EvaluationWeights.ARCHER) * archers.size();
 		totalUtility += archersAlive;
-		// If this state corresponds to a move on the best path, add a bonus
-		int bonusPathUtility = 0;
+		return totalUtility;
+	}
+
+	// If this state corresponds to a move on the best path, add a bonus
+	private double pathBonusUtility() {
+		double bonusPathUtility = 0;
 		// !footmanturn indicating that they just moved
 		if (!isFootmanTurn && aStarResult != null) {
-			System.out.println("Checking astar");
 			for (UnitState footman : footmen) {
 				Stack<MapLocation> aStarPath = aStarResult.get(footman.getId());
-				if (aStarPath != null) {
+				if (aStarPath != null && !aStarPath.isEmpty()) {
 					MapLocation loc = aStarPath.peek();
 					if (loc.x == footman.getXPos()
 							&& loc.y == footman.getYPos()) {
-						System.out.println("Adding bonus");
-						bonusPathUtility += A_STAR_PATH_BONUS;
+						bonusPathUtility += weights
+								.get(EvaluationWeights.A_STAR_PATH_BONUS);
 					}
 				}
 			}
 		}
-		totalUtility += bonusPathUtility;
-		return totalUtility;
+		return bonusPathUtility;
 	}
 
 	// Finds the distance to the closest enemy, encouraging a footman to move
-	// towards units they are already close to.
+	// towards units they are already close to. The Euclidean distance is
+	// truncated to an int, with one sqrt per footman rather than per pair.
 	private int distToClosestEnemy(UnitState footman, List<UnitState> archs) {
-		int min = Integer.MAX_VALUE;
-		Point2D footmanLoc = new Point2D.Double(footman.getXPos(),
-				footman.getYPos());
+		int minSquared = Integer.MAX_VALUE;
 		for (UnitState archer : archs) {
-			Point2D archerLoc = new Point2D.Double(archer.getXPos(),
-					archer.getYPos());
-			min = (int) Math.min(min, Math.abs(footmanLoc.distance(archerLoc)));
+			minSquared = Math.min(minSquared,
+					Distances.squaredEuclidean(footman, archer));
 		}
-		return min;
+		return (int) Math.sqrt(minSquared);
 	}
 
 	/**
@@ -222,70 +337,113 @@ public class GameState {
 	 * @return All possible actions and their associated resulting game state
 	 */
 	public List<GameStateChild> getChildren() {
+		List<Map<Integer, Action>> actionPairings = getJointActions();
+		Map<Integer, Stack<MapLocation>> aStarResult = pathsToClosestArchers();
+		// Create the children
+		List<GameStateChild> children = new ArrayList<GameStateChild>();
+		for (Map<Integer, Action> actionPair : actionPairings) {
+			children.add(childState(this, actionPair, aStarResult));
+		}
+		return children;
+	}
+
+	/**
+	 * The joint actions of the side to move, in the order
+	 * {@link #getChildren()} returns the children they lead to, without
+	 * building the child states.
+	 *
+	 * @return the joint actions.
+	 */
+	List<Map<Integer, Action>> getJointActions() {
 		Map<Integer, List<Action>> actions = new HashMap<Integer, List<Action>>();
 		if (isFootmanTurn) {
 			for (UnitState footman : footmen) {
-				List<Action> footmanActions = new ArrayList<Action>();
-				// Add move actions
-				footmanActions.addAll(moveActions(footman));
-				// Add attack options
-				footmanActions.addAll(attackActions(footman, archers,
-						footman.getRange()));
-				actions.put(footman.getId(), footmanActions);
+				actions.put(footman.getId(), unitActions(footman, archers));
 			}
 		} else {
 			for (UnitState archer : archers) {
-				List<Action> archerActions = new ArrayList<Action>();
-				// Add move actions
-				archerActions.addAll(moveActions(archer));
-				// Add attack actions
-				archerActions.addAll(attackActions(archer, footmen,
-						archer.getRange()));
-				actions.put(archer.getId(), archerActions);
+				actions.put(archer.getId(), unitActions(archer, footmen));
 			}
 		}
-		List<GameStateChild> childrenStates = generateChildren(actions);
-		return childrenStates;
+		// Get the possible pairs of actions, or the most promising ones if
+		// there are too many units to enumerate them all
+		if (jointActionCount(actions) <= jointActionBudget) {
+			return getCrossProductOfActions(actions);
+		}
+		return getCrossProductOfBestActions(actions);
 	}
 
-	// Takes a map of unitID to a List of actions that unit can take and creates
-	// all possible
-	// children states
-	private List<GameStateChild> generateChildren(
-			Map<Integer, List<Action>> actions) {
-		// Get the possible pairs of actions
-		List<Map<Integer, Action>> actionPairings = getCrossProductOfActions(actions);
-		List<GameStateChild> children = new ArrayList<GameStateChild>();
-		// If it is the footmans turn compute A* so that optimal moves can be
-		// weighted higher
+	/**
+	 * The moves and attacks one unit chooses from in this state.
+	 *
+	 * @param unit
+	 *            a footman or archer of this state.
+	 * @param enemies
+	 *            the units of the other side.
+	 * @return the unit's moves followed by its attacks.
+	 */
+	List<Action> unitActions(UnitState unit, List<UnitState> enemies) {
+		List<Action> unitActions = new ArrayList<Action>();
+		// Add move actions
+		unitActions.addAll(moveActions(unit));
+		// Add attack actions
+		unitActions.addAll(attackActions(unit, enemies, unit.getRange()));
+		return unitActions;
+	}
+
+	/**
+	 * The number of children {@link #getChildren()} returns, counted from the
+	 * moves and attacks of each unit without generating any of them.
+	 *
+	 * @return the number of children.
+	 */
+	public long childCount() {
+		List<UnitState> units = isFootmanTurn ? footmen : archers;
+		List<UnitState> targets = isFootmanTurn ? archers : footmen;
+		// At most jointActionBudget joint actions are kept, and capping
+		// the product as it grows gives the same result without overflowing
+		long count = 1;
+		for (UnitState unit : units) {
+			int cell = tables.cell(unit.getXPos(), unit.getYPos());
+			long[] rangeMasks = tables.rangeMasks(unit.getRange());
+			int unitActions = tables.neighbourEnd(cell)
+					- tables.neighbourStart(cell);
+			for (UnitState target : targets) {
+				if (tables.inRange(rangeMasks, cell,
+						tables.cell(target.getXPos(), target.getYPos()))) {
+					unitActions++;
+				}
+			}
+			count = Math.min(count * unitActions, jointActionBudget);
+		}
+		return Math.min(count, jointActionBudget);
+	}
+
+	/**
+	 * If it is the footmen's turn, computes the A* path of each footman to its
+	 * closest archer, so that children on those paths get the path bonus.
+	 *
+	 * @return the paths by footman ID, empty on the archers' turn.
+	 */
+	Map<Integer, Stack<MapLocation>> pathsToClosestArchers() {
 		Map<Integer, Stack<MapLocation>> aStarResult = new HashMap<Integer, Stack<MapLocation>>();
 		if (isFootmanTurn) {
 			for (UnitState footman : footmen) {
 				UnitState closestTarget = null;
-				double dist = Integer.MAX_VALUE;
+				int dist = Integer.MAX_VALUE;
 				// A* to closest enemy
 				for (UnitState archer : archers) {
-					if (distance(footman, archer) < dist) {
+					int archerDist = Distances.squaredEuclidean(footman, archer);
+					if (archerDist < dist) {
 						closestTarget = archer;
+						dist = archerDist;
 					}
 				}
 				aStarResult.put(footman.getId(), aStarHelper.aStarSearch(
 						footman, closestTarget, xExtent, yExtent, resources));
 			}
 		}
-		// Create the children
-		for (Map<Integer, Action> actionPair : actionPairings) {
-			children.add(childState(this, actionPair, aStarResult));
-		}
-		return children;
-	}
-
-	private double distance(UnitState footman, UnitState archer) {
-		Point2D footPoint = new Point2D.Double(footman.getXPos(),
-				footman.getYPos());
-		Point2D archPoint = new Point2D.Double(archer.getXPos(),
-				archer.getYPos());
-		return Math.abs(footPoint.distance(archPoint));
+		return aStarResult;
 	}
 
 	private GameStateChild childState(GameState gameState,
@@ -315,9 +473,12 @@ public class GameState {
 		} else {
 			applyActions(archs, foots, actions);
 		}
+		removeDeadUnits(foots);
+		removeDeadUnits(archs);
 		// create a new games state
 		GameState newState = new GameState(xBound, yBound, foots, archs,
-				resourceList, !gameState.isFootmanTurn, aStarResult);
+				resourceList, !gameState.isFootmanTurn, aStarResult,
+				gameState.tables);
 		// Return a new GameStateChild
 		return new GameStateChild(actions, newState);
 	}
@@ -343,6 +504,15 @@ public class GameState {
 		}
 	}
 
+	private void removeDeadUnits(List<UnitState> units) {
+		Iterator<UnitState> it = units.iterator();
+		while (it.hasNext()) {
+			if (it.next().getHealth() <= 0) {
+				it.remove();
+			}
+		}
+	}
+
 	private UnitState unitByID(List<UnitState> units, int id) {
 		for (UnitState u : units) {
 			if (u.getId() == id) {
@@ -383,6 +553,100 @@ public class GameState {
 		return actionPairings;
 	}
 
+	// Size of the full cross product, saturating at Long.MAX_VALUE
+	private long jointActionCount(Map<Integer, List<Action>> actions) {
+		long count = 1;
+		for (List<Action> unitActions : actions.values()) {
+			if (unitActions.size() > 0
+					&& count > Long.MAX_VALUE / unitActions.size()) {
+				return Long.MAX_VALUE;
+			}
+			count *= unitActions.size();
+		}
+		return count;
+	}
+
+	// Ranks each unit's actions by actionScore and returns the cross product
+	// of each unit's best few. All units start with their best action, and
+	// the units nearest an enemy are widened first, one action at a time,
+	// while the product stays within jointActionBudget. The children then
+	// cover every combination of the alternatives kept, instead of the best
+	// joint action with one or two units swapped to their next best, which
+	// is what the top joint actions by total score mostly are.
+	private List<Map<Integer, Action>> getCrossProductOfBestActions(
+			Map<Integer, List<Action>> actions) {
+		List<UnitState> units = new ArrayList<UnitState>(isFootmanTurn ? footmen
+				: archers);
+		List<UnitState> enemies = isFootmanTurn ? archers : footmen;
+		units.sort((a, b) -> Integer.compare(
+				nearestEnemy(a.getXPos(), a.getYPos(), enemies),
+				nearestEnemy(b.getXPos(), b.getYPos(), enemies)));
+		Map<Integer, Integer> kept = new HashMap<Integer, Integer>();
+		for (UnitState unit : units) {
+			actions.get(unit.getId()).sort(
+					(a, b) -> Double.compare(actionScore(b), actionScore(a)));
+			kept.put(unit.getId(), 1);
+		}
+		long count = 1;
+		boolean widened = true;
+		while (widened) {
+			widened = false;
+			for (UnitState unit : units) {
+				int unitKept = kept.get(unit.getId());
+				long widenedCount = count / unitKept * (unitKept + 1);
+				if (unitKept < actions.get(unit.getId()).size()
+						&& widenedCount <= jointActionBudget) {
+					kept.put(unit.getId(), unitKept + 1);
+					count = widenedCount;
+					widened = true;
+				}
+			}
+		}
+		Map<Integer, List<Action>> best = new HashMap<Integer, List<Action>>();
+		for (Entry<Integer, List<Action>> unitActions : actions.entrySet()) {
+			List<Action> ranked = unitActions.getValue();
+			best.put(unitActions.getKey(), ranked.subList(0,
+					Math.min(kept.get(unitActions.getKey()), ranked.size())));
+		}
+		return getCrossProductOfActions(best);
+	}
+
+	// Cheap per-unit ranking used by getCrossProductOfBestActions: attacks
+	// first, weakest target first, then moves that bring footmen closer to or
+	// archers further from the nearest enemy, and then from all of them.
+	private double actionScore(Action action) {
+		List<UnitState> units = isFootmanTurn ? footmen : archers;
+		List<UnitState> enemies = isFootmanTurn ? archers : footmen;
+		if (action.getType() == ActionType.PRIMITIVEATTACK) {
+			TargetedAction attack = (TargetedAction) action;
+			return ATTACK_SCORE
+					- unitByID(enemies, attack.getTargetId()).getHealth();
+		}
+		UnitState unit = unitByID(units, action.getUnitId());
+		Direction direction = ((DirectedAction) action).getDirection();
+		int x = unit.getXPos() + direction.xComponent();
+		int y = unit.getYPos() + direction.yComponent();
+		// Ties on the nearest enemy go by the distance to all of them, scaled
+		// below one so that it never outweighs the nearest
+		int total = 0;
+		for (UnitState enemy : enemies) {
+			total += Distances.manhattan(x, y, enemy.getXPos(), enemy.getYPos());
+		}
+		double distance = nearestEnemy(x, y, enemies) + (double) total
+				/ (enemies.size() * (xExtent + yExtent));
+		return isFootmanTurn ? -distance : distance;
+	}
+
+	// Manhattan distance from a cell to the closest of the given enemies
+	private static int nearestEnemy(int x, int y, List<UnitState> enemies) {
+		int nearest = Integer.MAX_VALUE;
+		for (UnitState enemy : enemies) {
+			nearest = Math.min(nearest, Distances.manhattan(x, y,
+					enemy.getXPos(), enemy.getYPos()));
+		}
+		return nearest;
+	}
+
 	private Collection<? extends Map<Integer, Action>> firstUnitsActions(
 			Entry<Integer, List<Action>> actionEntry) {
 		List<Map<Integer, Action>> actionList = new ArrayList<Map<Integer, Action>>();
@@ -398,8 +662,11 @@ public class GameState {
 	private List<Action> attackActions(UnitState unit, List<UnitState> targets,
 			int range) {
 		List<Action> attacks = new ArrayList<Action>();
+		int cell = tables.cell(unit.getXPos(), unit.getYPos());
+		long[] rangeMasks = tables.rangeMasks(range);
 		for (UnitState target : targets) {
-			if (targetDistance(unit, target) <= range) {
+			if (tables.inRange(rangeMasks, cell,
+					tables.cell(target.getXPos(), target.getYPos()))) {
 				attacks.add(Action.createPrimitiveAttack(unit.getId(),
 						target.getId()));
 			}
@@ -407,22 +674,6 @@ public class GameState {
 		return attacks;
 	}
 
-	/**
-	 * Returns the distance from one unit to another as it would be calculated
-	 * in a range check.
-	 *
-	 * @param unitA
-	 *            the first unit.
-	 * @param unitB
-	 *            the second unit.
-	 * @return an int representing the distance.
-	 */
-	private double targetDistance(UnitState unitA, UnitState unitB) {
-		int xDiff = Math.abs(unitA.getXPos() - unitB.getXPos());
-		int yDiff = Math.abs(unitA.getYPos() - unitB.getYPos());
-		return Math.max(xDiff, yDiff);
-	}
-
 	/**
 	 * Generates all valid move actions for the given unit.
 	 *
@@ -432,37 +683,12 @@ public class GameState {
 	 */
 	private List<Action> moveActions(UnitState unit) {
 		List<Action> moveActions = new ArrayList<Action>();
-		int x = unit.getXPos();
-		int y = unit.getYPos();
+		int cell = tables.cell(unit.getXPos(), unit.getYPos());
 		int id = unit.getId();
-		for (Direction direction : VALID_DIRECTIONS) {
-			int newX = x + direction.xComponent();
-			int newY = y + direction.yComponent();
-			if (isValidSpace(newX, newY)) {
-				moveActions.add(Action.createPrimitiveMove(id, direction));
-			}
+		for (int i = tables.neighbourStart(cell); i < tables.neighbourEnd(cell); i++) {
+			moveActions.add(Action.createPrimitiveMove(id,
+					tables.neighbourDirection(i)));
 		}
 		return moveActions;
 	}
-
-	/**
-	 * Returns true if the space is valid.
-	 *
-	 * @param newX
-	 *            the x position the unit will be moving to.
-	 * @param newY
-	 *            the y position the unit will be moving to.
-	 * @return true if the space is valid, false otherwise.
-	 */
-	private boolean isValidSpace(int newX, int newY) {
-		boolean inBounds = 0 <= newX && 0 <= newY && newX < xExtent
-				&& newY < yExtent;
-		for (ResourceView resource : resources) {
-			if (resource.getXPosition() == newX
-					&& resource.getYPosition() == newY) {
-				return false;
-			}
-		}
-		return inBounds;
-	}
 }
@@ -0,0 +1,207 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Plays single SEPIA episodes of {@link MinimaxAlphaBeta} against ArcherAgent
+ * without the VisualAgent. Each episode runs in its own JVM so that episodes
+ * played in parallel share no static state. Used by {@link EvaluationTuner}
+ * and {@link Tournament}.
+ *
+ * SEPIA, ArcherAgent and the search are all deterministic, so an episode on
+ * a bundled map always plays out the same way. Matches that need more than
+ * one game per map play them from {@link #writeRandomStart random starts}.
+ */
+public class HeadlessMatch {
+
+	public static final List<String> BUNDLED_MAPS = Arrays.asList(
+			"data/Game2fv1a_Obstacles.xml", "data/Game2fv2a.xml",
+			"data/Game2fv2a_Obstacles.xml");
+	private static final long GAME_TIMEOUT_MINUTES = 10;
+
+	/**
+	 * The outcome of one episode as reported by
+	 * {@link MinimaxAlphaBeta#terminalStep}.
+	 */
+	public static class Result {
+
+		public final boolean won;
+		public final int turns;
+		// Time spent choosing actions, and the number of turns it was spread
+		// over
+		public final long searchMillis;
+		public final int searchTurns;
+
+		public Result(boolean won, int turns, long searchMillis,
+				int searchTurns) {
+			this.won = won;
+			this.turns = turns;
+			this.searchMillis = searchMillis;
+			this.searchTurns = searchTurns;
+		}
+	}
+
+	private HeadlessMatch() {
+	}
+
+	/**
+	 * Writes a copy of a map with the footmen and archers moved to random
+	 * open cells, see {@link BenchmarkMapGenerator#randomStart}.
+	 *
+	 * @param dir
+	 *            the directory to create the map in.
+	 * @param map
+	 *            the map file, relative to the working directory.
+	 * @param random
+	 *            source of the unit positions.
+	 * @return the path of the new map.
+	 */
+	public static String writeRandomStart(File dir, String map, Random random)
+			throws IOException {
+		String xml = new String(Files.readAllBytes(new File(map).toPath()),
+				StandardCharsets.UTF_8);
+		File start = File.createTempFile("map", ".xml", dir);
+		Files.write(start.toPath(), BenchmarkMapGenerator.randomStart(xml,
+				random).getBytes(StandardCharsets.UTF_8));
+		return start.getAbsolutePath();
+	}
+
+	/**
+	 * Writes a SEPIA configuration equivalent to the bundled ones but without
+	 * the VisualAgent.
+	 *
+	 * @param dir
+	 *            the directory to create the configuration in.
+	 * @param map
+	 *            the map file, absolute or relative to the working directory.
+	 * @param agentArgs
+	 *            the arguments passed to {@link MinimaxAlphaBeta}.
+	 * @return the configuration file.
+	 */
+	public static File writeConfig(File dir, String map, List<String> agentArgs)
+			throws IOException {
+		File config = File.createTempFile("config", ".xml", dir);
+		try (PrintWriter out = new PrintWriter(config, "UTF-8")) {
+			out.println("<Configuration>");
+			out.println("\t<Map>" + map + "</Map>");
+			out.println("\t<Player Id=\"0\">");
+			out.println("\t\t<AgentClass>");
+			out.println("\t\t\t<ClassName>" + MinimaxAlphaBeta.class.getName()
+					+ "</ClassName>");
+			for (String arg : agentArgs) {
+				out.println("\t\t\t<Argument>" + arg + "</Argument>");
+			}
+			out.println("\t\t</AgentClass>");
+			out.println("\t</Player>");
+			out.println("\t<Player Id=\"1\">");
+			out.println("\t\t<AgentClass>");
+			out.println("\t\t\t<ClassName>ArcherAgent</ClassName>");
+			out.println("\t\t\t<Argument>1</Argument>");
+			out.println("\t\t</AgentClass>");
+			out.println("\t</Player>");
+			out.println("\t<ModelParameters>");
+			out.println("\t\t<Conquest>true</Conquest>");
+			out.println("\t\t<Midas>false</Midas>");
+			out.println("\t\t<ManifestDestiny>false</ManifestDestiny>");
+			out.println("\t\t<TimeLimit>100000</TimeLimit>");
+			out.println("\t</ModelParameters>");
+			out.println("\t<Runner>");
+			out.println("\t\t<RunnerClass>edu.cwru.sepia.experiment.SimpleModelEpisodicRunner</RunnerClass>");
+			out.println("\t\t<Parameter Name=\"experiment.NumEpisodes\" Value=\"1\"/>");
+			out.println("\t\t<Parameter Name=\"experiment.EpisodesPerSave\" Value=\"1\"/>");
+			out.println("\t\t<Parameter Name=\"experiment.SaveAgents\" Value=\"false\"/>");
+			out.println("\t\t<Parameter Name=\"environment.model.class\" Value=\"edu.cwru.sepia.environment.model.BestEffortModel\"/>");
+			out.println("\t</Runner>");
+			out.println("</Configuration>");
+		}
+		return config;
+	}
+
+	/**
+	 * Plays one episode in a fresh JVM.
+	 *
+	 * @param config
+	 *            a configuration written by {@link #writeConfig}.
+	 * @param weightsFile
+	 *            the evaluation weights to play with, or null for the
+	 *            configured ones.
+	 * @return the outcome, a loss if the episode never reported one or did not
+	 *         finish within {@value #GAME_TIMEOUT_MINUTES} minutes.
+	 */
+	public static Result play(File config, File weightsFile)
+			throws IOException, InterruptedException {
+		String java = System.getProperty("java.home") + File.separator + "bin"
+				+ File.separator + "java";
+		List<String> command = new ArrayList<String>();
+		command.add(java);
+		if (weightsFile != null) {
+			command.add("-D" + EvaluationWeights.WEIGHTS_PROPERTY + "="
+					+ weightsFile.getAbsolutePath());
+		}
+		// Class data sharing archive written by SearchWarmup, if there is one
+		File archive = new File(System.getProperty(
+				SearchWarmup.CDS_ARCHIVE_PROPERTY,
+				SearchWarmup.DEFAULT_CDS_ARCHIVE));
+		if (archive.isFile()) {
+			command.add("-XX:SharedArchiveFile=" + archive.getAbsolutePath());
+		}
+		command.addAll(Arrays.asList("-cp",
+				System.getProperty("java.class.path"), "edu.cwru.sepia.Main2",
+				config.getAbsolutePath()));
+		ProcessBuilder builder = new ProcessBuilder(command);
+		builder.redirectErrorStream(true);
+		Process process = builder.start();
+		// The output is read on its own thread so that a game which hangs
+		// without closing it still times out below
+		AtomicReference<Result> reported = new AtomicReference<Result>();
+		Thread reader = new Thread(
+				() -> readResult(process.getInputStream(), reported),
+				"headless-match-output");
+		reader.setDaemon(true);
+		reader.start();
+		if (!process.waitFor(GAME_TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+			process.destroyForcibly().waitFor();
+			System.err.println("Episode of " + config + " timed out after "
+					+ GAME_TIMEOUT_MINUTES + " minutes, counted as a loss");
+			return new Result(false, 0, 0, 0);
+		}
+		// The process has exited, so its output ends shortly
+		reader.join();
+		Result result = reported.get();
+		return result == null ? new Result(false, 0, 0, 0) : result;
+	}
+
+	// Drains a game's output, keeping the result line printed by terminalStep
+	private static void readResult(InputStream output,
+			AtomicReference<Result> reported) {
+		try (BufferedReader out = new BufferedReader(new InputStreamReader(
+				output))) {
+			String line;
+			while ((line = out.readLine()) != null) {
+				if (line.startsWith(MinimaxAlphaBeta.RESULT_PREFIX)) {
+					String[] parts = line
+							.substring(MinimaxAlphaBeta.RESULT_PREFIX.length())
+							.trim().split(" ");
+					reported.set(new Result("win".equals(parts[0]),
+							Integer.parseInt(parts[1]), Long.parseLong(parts[2]),
+							Integer.parseInt(parts[3])));
+				}
+			}
+		} catch (IOException e) {
+			// Closed when a timed out game is killed
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.cwru.sepia.environment.model.state.ResourceNode.ResourceView;
+
+/**
+ * The size and obstacle layout of a map, as a blocked flag per cell numbered
+ * y * xExtent + x. Two layouts are equal only if they have the same extents
+ * and block exactly the same cells, which is what {@link MapTables} and
+ * {@link EndgameTablebase} check before reusing tables built for a map.
+ */
+public class MapLayout {
+
+	private final int xExtent;
+	private final int yExtent;
+	private final boolean[] blocked;
+
+	public MapLayout(int xExtent, int yExtent, boolean[] blocked) {
+		this.xExtent = xExtent;
+		this.yExtent = yExtent;
+		this.blocked = blocked;
+	}
+
+	/**
+	 * The layout of a map whose obstacles are the given resources.
+	 *
+	 * @param xExtent
+	 *            the map width.
+	 * @param yExtent
+	 *            the map height.
+	 * @param resources
+	 *            the obstacles.
+	 * @return the layout.
+	 */
+	public static MapLayout of(int xExtent, int yExtent,
+			List<ResourceView> resources) {
+		boolean[] blocked = new boolean[xExtent * yExtent];
+		for (ResourceView resource : resources) {
+			blocked[resource.getYPosition() * xExtent
+					+ resource.getXPosition()] = true;
+		}
+		return new MapLayout(xExtent, yExtent, blocked);
+	}
+
+	public int getXExtent() {
+		return xExtent;
+	}
+
+	public int getYExtent() {
+		return yExtent;
+	}
+
+	public boolean isBlocked(int cell) {
+		return blocked[cell];
+	}
+
+	/**
+	 * @return the blocked flags packed eight cells to a byte, lowest cell in
+	 *         the lowest bit, as stored in tablebase files.
+	 */
+	public byte[] toBytes() {
+		byte[] bytes = new byte[byteCount(xExtent, yExtent)];
+		for (int cell = 0; cell < blocked.length; cell++) {
+			if (blocked[cell]) {
+				bytes[cell >>> 3] |= 1 << (cell & 7);
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Reads a layout written by {@link #toBytes()}.
+	 *
+	 * @param xExtent
+	 *            the map width.
+	 * @param yExtent
+	 *            the map height.
+	 * @param data
+	 *            the buffer holding the layout.
+	 * @param offset
+	 *            the position of the layout in data.
+	 * @return the layout.
+	 */
+	public static MapLayout fromBytes(int xExtent, int yExtent,
+			ByteBuffer data, int offset) {
+		boolean[] blocked = new boolean[xExtent * yExtent];
+		for (int cell = 0; cell < blocked.length; cell++) {
+			blocked[cell] = (data.get(offset + (cell >>> 3)) & 1 << (cell & 7)) != 0;
+		}
+		return new MapLayout(xExtent, yExtent, blocked);
+	}
+
+	/**
+	 * @return the length of {@link #toBytes()} for a map of these extents.
+	 */
+	public static int byteCount(int xExtent, int yExtent) {
+		return (xExtent * yExtent + 7) >>> 3;
+	}
+
+	@Override
+	public int hashCode() {
+		return (31 * xExtent + yExtent) * 31 + Arrays.hashCode(blocked);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null || getClass() != obj.getClass())
+			return false;
+		MapLayout other = (MapLayout) obj;
+		return xExtent == other.xExtent && yExtent == other.yExtent
+				&& Arrays.equals(blocked, other.blocked);
+	}
+}
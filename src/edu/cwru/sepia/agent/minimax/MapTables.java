@@ -0,0 +1,206 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.cwru.sepia.environment.model.state.ResourceNode.ResourceView;
+import edu.cwru.sepia.util.Direction;
+
+/**
+ * Lookup tables for one map, so that move and attack generation are table
+ * walks instead of bounds, obstacle and distance checks at every node.
+ *
+ * Cells are numbered y * xExtent + x. For every cell the tables hold the
+ * packed list of open neighbour cells with the direction leading to each,
+ * and for every attack range in use a bitmask of the cells within that
+ * Chebyshev distance. Range masks are built the first time a unit with that
+ * range is expanded.
+ *
+ * The tables only depend on the map, so {@link #forMap} hands out the same
+ * instance for every state of an episode and only builds new ones when the
+ * map's {@link MapLayout} differs from the last one's, cell for cell.
+ */
+public class MapTables {
+
+	// Order in which a cell's moves are listed
+	private static final Direction[] DIRECTIONS = { Direction.NORTH,
+			Direction.EAST, Direction.SOUTH, Direction.WEST };
+
+	private static volatile MapTables current;
+
+	private final int xExtent;
+	private final int yExtent;
+	private final MapLayout layout;
+	private final int cells;
+	// Neighbours of cell c are at neighbourStart[c] until neighbourStart[c+1]
+	private final int[] neighbourStart;
+	private final int[] neighbourCells;
+	private final Direction[] neighbourDirections;
+	// Longs per cell in a range mask
+	private final int maskWords;
+	// Range masks by attack range, null until a unit with that range is
+	// expanded. Replaced by a grown copy when a mask is added.
+	private volatile long[][] rangeMasks = new long[0][];
+
+	private MapTables(MapLayout layout) {
+		this.xExtent = layout.getXExtent();
+		this.yExtent = layout.getYExtent();
+		this.layout = layout;
+		this.cells = xExtent * yExtent;
+		this.maskWords = (cells + 63) >>> 6;
+		this.neighbourStart = new int[cells + 1];
+		int[] packedCells = new int[cells * DIRECTIONS.length];
+		Direction[] packedDirections = new Direction[cells
+				* DIRECTIONS.length];
+		int count = 0;
+		for (int cell = 0; cell < cells; cell++) {
+			neighbourStart[cell] = count;
+			int x = cell % xExtent;
+			int y = cell / xExtent;
+			for (Direction direction : DIRECTIONS) {
+				int nx = x + direction.xComponent();
+				int ny = y + direction.yComponent();
+				if (0 <= nx && 0 <= ny && nx < xExtent && ny < yExtent
+						&& !layout.isBlocked(ny * xExtent + nx)) {
+					packedCells[count] = ny * xExtent + nx;
+					packedDirections[count++] = direction;
+				}
+			}
+		}
+		neighbourStart[cells] = count;
+		this.neighbourCells = Arrays.copyOf(packedCells, count);
+		this.neighbourDirections = Arrays.copyOf(packedDirections,
+				count);
+	}
+
+	/**
+	 * The tables for a map, reusing the last ones built if the map is the
+	 * same.
+	 *
+	 * @param xExtent
+	 *            the map width.
+	 * @param yExtent
+	 *            the map height.
+	 * @param resources
+	 *            the obstacles.
+	 * @return the tables.
+	 */
+	public static MapTables forMap(int xExtent, int yExtent,
+			List<ResourceView> resources) {
+		return forLayout(MapLayout.of(xExtent, yExtent, resources));
+	}
+
+	/**
+	 * The tables for a map layout, reusing the last ones built if the layout
+	 * is the same.
+	 *
+	 * @param layout
+	 *            the map size and obstacles.
+	 * @return the tables.
+	 */
+	public static MapTables forLayout(MapLayout layout) {
+		MapTables tables = current;
+		if (tables == null || !tables.layout.equals(layout)) {
+			tables = new MapTables(layout);
+			current = tables;
+		}
+		return tables;
+	}
+
+	public int cell(int x, int y) {
+		return y * xExtent + x;
+	}
+
+	public int neighbourStart(int cell) {
+		return neighbourStart[cell];
+	}
+
+	public int neighbourEnd(int cell) {
+		return neighbourStart[cell + 1];
+	}
+
+	/**
+	 * @return the direction of the i-th packed neighbour, for i between
+	 *         {@link #neighbourStart} and {@link #neighbourEnd} of a cell.
+	 */
+	public Direction neighbourDirection(int i) {
+		return neighbourDirections[i];
+	}
+
+	/**
+	 * @param cells
+	 *            at least one cell.
+	 * @return true if a unit on the first cell can walk to every other.
+	 */
+	public boolean connected(int[] cells) {
+		boolean[] reached = new boolean[this.cells];
+		ArrayDeque<Integer> queue = new ArrayDeque<Integer>();
+		reached[cells[0]] = true;
+		queue.add(cells[0]);
+		while (!queue.isEmpty()) {
+			int cell = queue.poll();
+			for (int i = neighbourStart[cell]; i < neighbourStart[cell + 1]; i++) {
+				int next = neighbourCells[i];
+				if (!reached[next]) {
+					reached[next] = true;
+					queue.add(next);
+				}
+			}
+		}
+		for (int cell : cells) {
+			if (!reached[cell]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * The masks of the cells within an attack range of each cell, to look up
+	 * once per unit and pass to {@link #inRange}.
+	 *
+	 * @param range
+	 *            the attack range.
+	 * @return the masks.
+	 */
+	public long[] rangeMasks(int range) {
+		long[][] masks = rangeMasks;
+		if (range < masks.length && masks[range] != null) {
+			return masks[range];
+		}
+		return addRangeMasks(range);
+	}
+
+	/**
+	 * @return true if a unit on cell whose attack range has the given masks
+	 *         can hit target.
+	 */
+	public boolean inRange(long[] rangeMasks, int cell, int target) {
+		return (rangeMasks[cell * maskWords + (target >>> 6)] & 1L << target) != 0;
+	}
+
+	private synchronized long[] addRangeMasks(int range) {
+		long[][] all = rangeMasks;
+		if (range < all.length && all[range] != null) {
+			return all[range];
+		}
+		long[] masks = new long[cells * maskWords];
+		for (int cell = 0; cell < cells; cell++) {
+			int x = cell % xExtent;
+			int y = cell / xExtent;
+			for (int ty = Math.max(0, y - range); ty <= Math.min(yExtent - 1, y
+					+ range); ty++) {
+				for (int tx = Math.max(0, x - range); tx <= Math.min(
+						xExtent - 1, x + range); tx++) {
+					int target = ty * xExtent + tx;
+					masks[cell * maskWords + (target >>> 6)] |= 1L << target;
+				}
+			}
+		}
+		long[][] grown = Arrays.copyOf(all, Math.max(all.length, range + 1));
+		grown[range] = masks;
+		rangeMasks = grown;
+		return masks;
+	}
+}
@@ -0,0 +1,264 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.cwru.sepia.action.Action;
+import edu.cwru.sepia.action.ActionType;
+import edu.cwru.sepia.action.DirectedAction;
+
+/**
+ * A learned model of how the archers actually play. Every archer action is
+ * reduced to a {@link Category} relative to the nearest footman. For each
+ * category the model counts how often an archer could have chosen it in past
+ * turns and how often it did, so an attack is measured against the turns an
+ * attack was possible rather than against all turns. At a node each archer's
+ * categories are weighted by that ratio and normalised over the categories
+ * the archer actually has there.
+ *
+ * The search uses it on archer plys either to expand only the k most likely
+ * archer replies, or as the chance distribution of an expectimax node instead
+ * of assuming a perfectly adversarial opponent.
+ */
+public class OpponentModel {
+
+	public enum Category {
+		ATTACK, APPROACH, HOLD, RETREAT
+	}
+
+	// Times each category was chosen, and offered to an archer. Starts at 1
+	// in 2 so categories never seen chosen keep some weight.
+	private final long[] chosen = new long[Category.values().length];
+	private final long[] offered = new long[Category.values().length];
+
+	public OpponentModel() {
+		for (int i = 0; i < chosen.length; i++) {
+			chosen[i] = 1;
+			offered[i] = 2;
+		}
+	}
+
+	/**
+	 * Records what each archer did between two consecutive turns.
+	 *
+	 * @param before
+	 *            the state the archers acted in.
+	 * @param after
+	 *            the resulting state.
+	 * @param commands
+	 *            the archer player's commands for that turn by unit ID, as
+	 *            given by the history.
+	 */
+	public synchronized void observe(GameState before, GameState after,
+			Map<Integer, Action> commands) {
+		for (UnitState archer : before.getArchers()) {
+			UnitState moved = unitByID(after.getArchers(), archer.getId());
+			if (moved == null) {
+				continue;
+			}
+			Action command = commands == null ? null : commands.get(archer
+					.getId());
+			Category category;
+			if (command != null
+					&& (command.getType() == ActionType.PRIMITIVEATTACK || command
+							.getType() == ActionType.COMPOUNDATTACK)) {
+				category = Category.ATTACK;
+			} else {
+				category = movement(before.getFootmen(), archer,
+						moved.getXPos(), moved.getYPos());
+			}
+			// SEPIA also lets an archer stay put, which the model has no
+			// action for, so the chosen category always counts as offered
+			int available = available(before, archer) | 1 << category.ordinal();
+			for (Category offer : Category.values()) {
+				if ((available & 1 << offer.ordinal()) != 0) {
+					offered[offer.ordinal()]++;
+				}
+			}
+			chosen[category.ordinal()]++;
+		}
+	}
+
+	/**
+	 * @return how often the archers chose a category when they could.
+	 */
+	public synchronized double propensity(Category category) {
+		return (double) chosen[category.ordinal()] / offered[category.ordinal()];
+	}
+
+	/**
+	 * The probability of the archers choosing a joint action, assuming they
+	 * choose independently.
+	 *
+	 * @param state
+	 *            the state the archers act in.
+	 * @param actions
+	 *            the archers' joint action.
+	 * @return the product of the probability of each archer's action category
+	 *         among the categories open to that archer.
+	 */
+	public double probability(GameState state, Map<Integer, Action> actions) {
+		return probability(state, actions, new HashMap<Integer, Integer>());
+	}
+
+	// As above, remembering the categories open to each archer by unit ID
+	private double probability(GameState state, Map<Integer, Action> actions,
+			Map<Integer, Integer> availableByArcher) {
+		double p = 1;
+		for (Action action : actions.values()) {
+			Integer available = availableByArcher.get(action.getUnitId());
+			if (available == null) {
+				UnitState archer = unitByID(state.getArchers(),
+						action.getUnitId());
+				available = archer == null ? 0 : available(state, archer);
+				availableByArcher.put(action.getUnitId(), available);
+			}
+			Category category = categorize(state, action);
+			double total = 0;
+			for (Category open : Category.values()) {
+				if ((available & 1 << open.ordinal()) != 0) {
+					total += propensity(open);
+				}
+			}
+			double weight = propensity(category);
+			p *= weight / (total > 0 ? total : weight);
+		}
+		return p;
+	}
+
+	// The categories of an archer's actions in a state, one bit per ordinal
+	private static int available(GameState state, UnitState archer) {
+		int available = 0;
+		for (Action action : state.unitActions(archer, state.getFootmen())) {
+			available |= 1 << categorize(state, action).ordinal();
+		}
+		return available;
+	}
+
+	/**
+	 * Orders archer replies from most to least likely and keeps the first k.
+	 *
+	 * @param state
+	 *            the state the archers act in.
+	 * @param children
+	 *            the archer replies.
+	 * @param k
+	 *            the number of replies to keep.
+	 * @return at most k of the children, most likely first.
+	 */
+	public List<GameStateChild> mostLikely(GameState state,
+			List<GameStateChild> children, int k) {
+		Map<GameStateChild, Double> likelihood = new IdentityHashMap<GameStateChild, Double>();
+		Map<Integer, Integer> availableByArcher = new HashMap<Integer, Integer>();
+		for (GameStateChild child : children) {
+			likelihood.put(child, probability(state, child.action,
+					availableByArcher));
+		}
+		List<GameStateChild> sorted = new ArrayList<GameStateChild>(children);
+		Collections.sort(sorted, (c1, c2) -> Double.compare(
+				likelihood.get(c2), likelihood.get(c1)));
+		return sorted.subList(0, Math.min(k, sorted.size()));
+	}
+
+	/**
+	 * Reduces a model action of an archer to a category.
+	 *
+	 * @param state
+	 *            the state the action is taken in.
+	 * @param action
+	 *            a primitive move or attack of an archer.
+	 * @return the action's category.
+	 */
+	public static Category categorize(GameState state, Action action) {
+		if (action.getType() == ActionType.PRIMITIVEATTACK) {
+			return Category.ATTACK;
+		}
+		UnitState archer = unitByID(state.getArchers(), action.getUnitId());
+		if (archer == null || !(action instanceof DirectedAction)) {
+			return Category.HOLD;
+		}
+		DirectedAction move = (DirectedAction) action;
+		return movement(state.getFootmen(), archer, archer.getXPos()
+				+ move.getDirection().xComponent(), archer.getYPos()
+				+ move.getDirection().yComponent());
+	}
+
+	// Compares the distance to the nearest footman before and after a move
+	private static Category movement(List<UnitState> footmen,
+			UnitState archer, int newX, int newY) {
+		int before = nearestFootman(footmen, archer.getXPos(),
+				archer.getYPos());
+		int after = nearestFootman(footmen, newX, newY);
+		if (after < before) {
+			return Category.APPROACH;
+		} else if (after > before) {
+			return Category.RETREAT;
+		}
+		return Category.HOLD;
+	}
+
+	private static int nearestFootman(List<UnitState> footmen, int x, int y) {
+		int nearest = Integer.MAX_VALUE;
+		for (UnitState footman : footmen) {
+			nearest = Math.min(nearest, Distances.manhattan(x, y,
+					footman.getXPos(), footman.getYPos()));
+		}
+		return nearest;
+	}
+
+	private static UnitState unitByID(List<UnitState> units, int id) {
+		for (UnitState u : units) {
+			if (u.getId() == id) {
+				return u;
+			}
+		}
+		return null;
+	}
+
+	// Written as the number of counts, then the chosen counts and the offered
+	// counts by category
+	public synchronized void save(OutputStream os) throws IOException {
+		DataOutputStream out = new DataOutputStream(os);
+		out.writeInt(chosen.length + offered.length);
+		for (long count : chosen) {
+			out.writeLong(count);
+		}
+		for (long count : offered) {
+			out.writeLong(count);
+		}
+		out.flush();
+	}
+
+	public synchronized void load(InputStream is) throws IOException {
+		DataInputStream in = new DataInputStream(is);
+		if (in.readInt() != chosen.length + offered.length) {
+			throw new IOException("Opponent model has the wrong categories");
+		}
+		long[] counts = new long[chosen.length + offered.length];
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = in.readLong();
+		}
+		System.arraycopy(counts, 0, chosen, 0, chosen.length);
+		System.arraycopy(counts, chosen.length, offered, 0, offered.length);
+	}
+
+	@Override
+	public synchronized String toString() {
+		StringBuilder sb = new StringBuilder("OpponentModel{");
+		for (Category category : Category.values()) {
+			sb.append(category.ordinal() == 0 ? "" : ", ").append(category)
+					.append('=').append(chosen[category.ordinal()]).append('/')
+					.append(offered[category.ordinal()]);
+		}
+		return sb.append('}').toString();
+	}
+}
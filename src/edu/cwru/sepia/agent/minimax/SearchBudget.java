@@ -0,0 +1,134 @@
+package edu.cwru.sepia.agent.minimax;
+
+/**
+ * Hard limits on one search: the number of nodes visited and the estimated
+ * bytes held by the child lists materialised along the current search path.
+ * A node's children are counted before they are generated, and a node whose
+ * children would not fit is not expanded. Once either limit is reached the
+ * budget stays exhausted until the next {@link #reset()}, and the search
+ * unwinds with whatever it has found.
+ *
+ * The limits are read from the {@value #MAX_NODES_PROPERTY} and
+ * {@value #MAX_LIVE_BYTES_PROPERTY} system properties. The node limit
+ * defaults to {@value #DEFAULT_MAX_NODES} and the byte limit to a quarter of
+ * the maximum heap, which keeps a deep search on a large map well clear of an
+ * OutOfMemoryError. Leaves scored in batches count as visited nodes.
+ */
+public class SearchBudget {
+
+	public static final String MAX_NODES_PROPERTY = "minimax.maxNodes";
+	public static final String MAX_LIVE_BYTES_PROPERTY = "minimax.maxLiveBytes";
+	public static final long DEFAULT_MAX_NODES = 1000000;
+
+	// Rough footprint of one GameStateChild: the child state, its unit lists
+	// and the joint action map, plus one copied UnitState and Action per unit
+	private static final long CHILD_BYTES = 256;
+	private static final long UNIT_BYTES = 96;
+	// Rough footprint of one leaf child, which has no state: the
+	// GameStateChild, the joint action map and its slot in the batch values,
+	// plus one map entry and Action per moving unit
+	private static final long LEAF_CHILD_BYTES = 80;
+	private static final long LEAF_ACTION_BYTES = 64;
+
+	public enum Limit {
+		NODES, MEMORY
+	}
+
+	private final long maxNodes;
+	private final long maxLiveBytes;
+	private long nodes;
+	private long liveBytes;
+	private Limit tripped;
+
+	public SearchBudget(long maxNodes, long maxLiveBytes) {
+		this.maxNodes = maxNodes;
+		this.maxLiveBytes = maxLiveBytes;
+	}
+
+	public static SearchBudget configured() {
+		return new SearchBudget(Long.getLong(MAX_NODES_PROPERTY,
+				DEFAULT_MAX_NODES), Long.getLong(MAX_LIVE_BYTES_PROPERTY,
+				Runtime.getRuntime().maxMemory() / 4));
+	}
+
+	/**
+	 * Starts a new search with nothing spent.
+	 */
+	public void reset() {
+		nodes = 0;
+		liveBytes = 0;
+		tripped = null;
+	}
+
+	/**
+	 * Counts a visited node.
+	 *
+	 * @return false if the budget is exhausted and the node should not be
+	 *         searched.
+	 */
+	public boolean visit() {
+		if (tripped != null) {
+			return false;
+		}
+		if (++nodes > maxNodes) {
+			tripped = Limit.NODES;
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Accounts for a node's children before they are generated, until
+	 * {@link #release} is called with the returned estimate.
+	 *
+	 * @param state
+	 *            the node to expand.
+	 * @param leaf
+	 *            true if only the joint actions of the children are
+	 *            generated, one ply above the horizon.
+	 * @return the estimated bytes the children will hold, or -1 if they would
+	 *         take the live bytes past the limit. Nothing is reserved then,
+	 *         the budget is exhausted and the node must not be expanded.
+	 */
+	public long reserve(GameState state, boolean leaf) {
+		long bytes;
+		if (leaf) {
+			int movers = state.isFootmanTurn() ? state.getFootmen().size()
+					: state.getArchers().size();
+			bytes = state.childCount()
+					* (LEAF_CHILD_BYTES + LEAF_ACTION_BYTES * movers);
+		} else {
+			bytes = state.childCount()
+					* (CHILD_BYTES + UNIT_BYTES
+							* (state.getFootmen().size() + state.getArchers()
+									.size()));
+		}
+		if (liveBytes + bytes > maxLiveBytes) {
+			if (tripped == null) {
+				tripped = Limit.MEMORY;
+			}
+			return -1;
+		}
+		liveBytes += bytes;
+		return bytes;
+	}
+
+	public void release(long bytes) {
+		liveBytes -= bytes;
+	}
+
+	public boolean isExhausted() {
+		return tripped != null;
+	}
+
+	/**
+	 * @return the limit that stopped the last search, or null if it finished.
+	 */
+	public Limit getTripped() {
+		return tripped;
+	}
+
+	public long getNodes() {
+		return nodes;
+	}
+}
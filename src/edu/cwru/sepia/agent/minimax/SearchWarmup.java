@@ -0,0 +1,191 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import edu.cwru.sepia.environment.model.state.ResourceNode;
+import edu.cwru.sepia.environment.model.state.ResourceNode.ResourceView;
+
+/**
+ * Warms up the search before the first turn. Without it turn 1 pays for
+ * class loading and for running the whole search path interpreted, which can
+ * make it many times slower than later turns under SEPIA's TimeLimit.
+ *
+ * {@link MinimaxAlphaBeta} calls {@link #run} from its constructor, which
+ * plays shallow searches on random battles on a dummy grid with obstacles
+ * until the time given by the {@value #WARMUP_PROPERTY} system property has
+ * passed (default {@value #DEFAULT_WARMUP_MILLIS} ms, 0 disables it). The
+ * obstacles never cut a footman off from an archer.
+ *
+ * Class loading can also be skipped with an AppCDS archive of the agent
+ * classes (JDK 13 or later). Running this class records one:
+ *
+ * java -XX:ArchiveClassesAtExit=data/minimax.jsa -cp minimax.jar:lib/SEPIA.jar
+ * edu.cwru.sepia.agent.minimax.SearchWarmup [plys]
+ *
+ * AppCDS only archives classes loaded from jars, so bin must be packaged
+ * into a jar on the class path first. Then start SEPIA with
+ * -XX:SharedArchiveFile=data/minimax.jsa.
+ * {@link HeadlessMatch} does so by itself when the file named by the
+ * {@value #CDS_ARCHIVE_PROPERTY} system property exists. Either way this
+ * class prints the latency of a cold first search next to the steady state.
+ */
+public class SearchWarmup {
+
+	public static final String WARMUP_PROPERTY = "minimax.warmupMillis";
+	public static final long DEFAULT_WARMUP_MILLIS = 500;
+	public static final String CDS_ARCHIVE_PROPERTY = "minimax.cdsArchive";
+	public static final String DEFAULT_CDS_ARCHIVE = "data/minimax.jsa";
+
+	private static final int X_EXTENT = 25;
+	private static final int Y_EXTENT = 19;
+	private static final int OBSTACLES = 20;
+	// Deep enough to reach every part of the search, shallow enough that a
+	// single search never overruns the warm-up time by much
+	private static final int MAX_WARMUP_PLYS = 3;
+	private static final int STEADY_STATE_SEARCHES = 20;
+
+	private SearchWarmup() {
+	}
+
+	public static long configuredMillis() {
+		return Long.getLong(WARMUP_PROPERTY, DEFAULT_WARMUP_MILLIS);
+	}
+
+	/**
+	 * Runs synthetic searches with an agent's settings.
+	 *
+	 * @param agent
+	 *            the agent to warm up.
+	 * @param plys
+	 *            the agent's search depth.
+	 * @param millis
+	 *            how long to keep searching. The last search may run past
+	 *            this.
+	 * @return the number of searches run.
+	 */
+	public static int run(MinimaxAlphaBeta agent, int plys, long millis) {
+		if (millis <= 0) {
+			return 0;
+		}
+		Random random = new Random(0);
+		int depth = Math.min(plys, MAX_WARMUP_PLYS);
+		long deadline = System.nanoTime() + millis * 1000000;
+		int searches = 0;
+		do {
+			agent.alphaBetaSearch(new GameStateChild(null, battle(random)),
+					depth, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+			searches++;
+		} while (System.nanoTime() < deadline);
+		// Synthetic positions must not take up cache slots in the real game
+		GameState.getEvaluationCache().clear();
+		return searches;
+	}
+
+	public static void main(String[] args) {
+		int plys = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		// Constructed without warm-up so that the first search is cold
+		System.setProperty(WARMUP_PROPERTY, "0");
+		MinimaxAlphaBeta agent = new MinimaxAlphaBeta(0,
+				new String[] { Integer.toString(plys) });
+		GameState position = battle(new Random(1));
+
+		long firstNanos = timeSearch(agent, position, plys);
+		long start = System.nanoTime();
+		int searches = run(agent, plys, DEFAULT_WARMUP_MILLIS);
+		long warmupNanos = System.nanoTime() - start;
+		long[] steady = new long[STEADY_STATE_SEARCHES];
+		for (int i = 0; i < steady.length; i++) {
+			steady[i] = timeSearch(agent, position, plys);
+		}
+		long firstWarmNanos = steady[0];
+		Arrays.sort(steady);
+		long median = steady[steady.length / 2];
+
+		System.out.printf("first search: %.1f ms%n", firstNanos / 1e6);
+		System.out.printf("warm-up: %d searches in %.1f ms%n", searches,
+				warmupNanos / 1e6);
+		System.out.printf("first search after warm-up: %.1f ms%n",
+				firstWarmNanos / 1e6);
+		System.out.printf("steady state: %.1f ms median, first search %.1fx%n",
+				median / 1e6, (double) firstNanos / median);
+	}
+
+	private static long timeSearch(MinimaxAlphaBeta agent, GameState position,
+			int plys) {
+		GameState.getEvaluationCache().clear();
+		long start = System.nanoTime();
+		agent.alphaBetaSearch(new GameStateChild(null, position), plys,
+				Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+		return System.nanoTime() - start;
+	}
+
+	// Two footmen against two archers with the bundled maps' stats, some of
+	// them close and wounded so that attacks and kills are searched too.
+	// Layouts where trees cut a footman off from an archer are drawn again:
+	// AStarHelper exits the JVM when it finds no path.
+	private static GameState battle(Random random) {
+		GameState battle;
+		do {
+			battle = randomBattle(random);
+		} while (!connected(battle));
+		return battle;
+	}
+
+	private static GameState randomBattle(Random random) {
+		List<ResourceView> resources = new ArrayList<ResourceView>();
+		boolean[] blocked = new boolean[X_EXTENT * Y_EXTENT];
+		for (int i = 0; i < OBSTACLES; i++) {
+			int x = random.nextInt(X_EXTENT);
+			int y = random.nextInt(Y_EXTENT);
+			if (!blocked[y * X_EXTENT + x]) {
+				blocked[y * X_EXTENT + x] = true;
+				resources.add(new ResourceNode(ResourceNode.Type.TREE, x, y,
+						100, 100 + i).getView());
+			}
+		}
+		List<UnitState> footmen = new ArrayList<UnitState>();
+		List<UnitState> archers = new ArrayList<UnitState>();
+		for (int id = 0; id < 2; id++) {
+			int footmanCell = openCell(random, blocked, random.nextInt(X_EXTENT),
+					random.nextInt(Y_EXTENT));
+			int x = footmanCell % X_EXTENT;
+			int y = footmanCell / X_EXTENT;
+			footmen.add(new UnitState(x, y, 1 + random.nextInt(160), 11, 1, id));
+			int archerCell = random.nextBoolean() ? openCell(random, blocked, x
+					+ random.nextInt(5) - 2, y + random.nextInt(3) - 1)
+					: openCell(random, blocked, random.nextInt(X_EXTENT),
+							random.nextInt(Y_EXTENT));
+			archers.add(new UnitState(archerCell % X_EXTENT, archerCell
+					/ X_EXTENT, 1 + random.nextInt(50), 8, 10, id + 2));
+		}
+		return new GameState(X_EXTENT, Y_EXTENT, footmen, archers, resources,
+				true, null);
+	}
+
+	// True if every unit can walk to every other one around the trees
+	private static boolean connected(GameState battle) {
+		MapTables tables = MapTables.forMap(X_EXTENT, Y_EXTENT,
+				battle.getResources());
+		List<UnitState> units = new ArrayList<UnitState>(battle.getFootmen());
+		units.addAll(battle.getArchers());
+		int[] cells = new int[units.size()];
+		for (int i = 0; i < cells.length; i++) {
+			cells[i] = tables.cell(units.get(i).getXPos(), units.get(i)
+					.getYPos());
+		}
+		return tables.connected(cells);
+	}
+
+	// The cell at x, y clamped to the grid, or a random open cell if blocked
+	private static int openCell(Random random, boolean[] blocked, int x, int y) {
+		int cell = Math.max(0, Math.min(Y_EXTENT - 1, y)) * X_EXTENT
+				+ Math.max(0, Math.min(X_EXTENT - 1, x));
+		while (blocked[cell]) {
+			cell = random.nextInt(X_EXTENT * Y_EXTENT);
+		}
+		return cell;
+	}
+}
@@ -0,0 +1,322 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Offline retrograde analysis of one footman vs one archer endings on a map,
+ * in the {@link GameState} model: the sides alternate, each unit moves one
+ * cell N, S, E or W onto any open cell or attacks an enemy within Chebyshev
+ * range, and a unit dies when it runs out of hits. The archer may also pass,
+ * which stands for it attacking another footman in a 2v1 ending. Writes the
+ * table read by {@link EndgameTablebase}.
+ *
+ * Every position where the side to move can kill is solved first. Solved
+ * positions are then taken in order of plys to the end and each of their
+ * predecessors is solved as soon as its mover has a winning move, or once
+ * every move of its mover is known to lose. Positions never solved are draws
+ * in the model.
+ *
+ * java -Xmx1g -cp bin:lib/SEPIA.jar
+ * edu.cwru.sepia.agent.minimax.TablebaseGenerator map.xml
+ * output.tb [maxFootmanHits]
+ */
+public class TablebaseGenerator {
+
+	private static final int DEFAULT_MAX_FOOTMAN_HITS = 6;
+	private static final Pattern PLAYER = Pattern
+			.compile("(?s)<player>\\s*<ID>(\\d+)</ID>(.*?)</player>");
+	private static final Pattern RESOURCE = Pattern
+			.compile("(?s)<resourceNode>.*?<xPosition>(\\d+)</xPosition>\\s*<yPosition>(\\d+)</yPosition>");
+	private static final int[][] DIRECTIONS = { { 0, -1 }, { 1, 0 }, { 0, 1 },
+			{ -1, 0 } };
+
+	private final int xExtent;
+	private final int yExtent;
+	private final int cells;
+	private final boolean[] blocked;
+	private final int footmanDamage;
+	private final int footmanRange;
+	private final int archerDamage;
+	private final int archerRange;
+	private final int maxFootmanHits;
+	private final int maxArcherHits;
+
+	// dtm << 1 | footman wins, 0 while unsolved
+	private short[] values;
+	// Moves of the position's mover not yet known to lose
+	private byte[] remaining;
+	private int[] queue;
+	private int queueTail;
+
+	public TablebaseGenerator(int xExtent, int yExtent, boolean[] blocked,
+			int footmanDamage, int footmanRange, int footmanHealth,
+			int archerDamage, int archerRange, int archerHealth,
+			int maxFootmanHits) {
+		this.xExtent = xExtent;
+		this.yExtent = yExtent;
+		this.cells = xExtent * yExtent;
+		this.blocked = blocked;
+		this.footmanDamage = footmanDamage;
+		this.footmanRange = footmanRange;
+		this.archerDamage = archerDamage;
+		this.archerRange = archerRange;
+		this.maxFootmanHits = Math.min(maxFootmanHits,
+				EndgameTablebase.hits(footmanHealth, archerDamage));
+		this.maxArcherHits = EndgameTablebase.hits(archerHealth, footmanDamage);
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: TablebaseGenerator map.xml output.tb "
+					+ "[maxFootmanHits]");
+			System.exit(1);
+		}
+		String map = new String(Files.readAllBytes(Paths.get(args[0])),
+				StandardCharsets.UTF_8);
+		int maxFootmanHits = args.length > 2 ? Integer.parseInt(args[2])
+				: DEFAULT_MAX_FOOTMAN_HITS;
+		TablebaseGenerator generator = fromMap(map, maxFootmanHits);
+		long start = System.currentTimeMillis();
+		generator.solve();
+		generator.write(args[1]);
+		System.out.println("Solved " + generator.values.length
+				+ " positions in " + (System.currentTimeMillis() - start)
+				+ " ms, wrote " + args[1]);
+	}
+
+	/**
+	 * Reads the map size, obstacles and the stats of the first footman and
+	 * archer from a SEPIA map file.
+	 */
+	static TablebaseGenerator fromMap(String map, int maxFootmanHits) {
+		int xExtent = intMatch(map, "xExtent=\"(\\d+)\"");
+		int yExtent = intMatch(map, "yExtent=\"(\\d+)\"");
+		boolean[] blocked = new boolean[xExtent * yExtent];
+		Matcher resource = RESOURCE.matcher(map);
+		while (resource.find()) {
+			blocked[Integer.parseInt(resource.group(2)) * xExtent
+					+ Integer.parseInt(resource.group(1))] = true;
+		}
+		String footmen = playerBlock(map, 0);
+		String archers = playerBlock(map, 1);
+		String footmanTemplate = unitTemplate(footmen);
+		String archerTemplate = unitTemplate(archers);
+		return new TablebaseGenerator(xExtent, yExtent, blocked, intMatch(
+				footmanTemplate, "<baseAttack>(\\d+)</baseAttack>")
+				+ intMatch(footmanTemplate,
+						"<piercingAttack>(\\d+)</piercingAttack>"), intMatch(
+				footmanTemplate, "<range>(\\d+)</range>"), intMatch(footmen,
+				"<currentHealth>(\\d+)</currentHealth>"), intMatch(
+				archerTemplate, "<baseAttack>(\\d+)</baseAttack>")
+				+ intMatch(archerTemplate,
+						"<piercingAttack>(\\d+)</piercingAttack>"), intMatch(
+				archerTemplate, "<range>(\\d+)</range>"), intMatch(archers,
+				"<currentHealth>(\\d+)</currentHealth>"), maxFootmanHits);
+	}
+
+	private static String playerBlock(String map, int playerId) {
+		Matcher player = PLAYER.matcher(map);
+		while (player.find()) {
+			if (Integer.parseInt(player.group(1)) == playerId) {
+				return player.group(2);
+			}
+		}
+		throw new IllegalArgumentException("Map has no player " + playerId);
+	}
+
+	// The template of the player's first unit
+	private static String unitTemplate(String player) {
+		int templateId = intMatch(player, "<templateID>(\\d+)</templateID>");
+		Matcher template = Pattern.compile(
+				"(?s)<template[^>]*>\\s*<ID>" + templateId
+						+ "</ID>(.*?)</template>").matcher(player);
+		if (!template.find()) {
+			throw new IllegalArgumentException("Map has no template "
+					+ templateId);
+		}
+		return template.group(1);
+	}
+
+	private static int intMatch(String text, String regex) {
+		Matcher m = Pattern.compile(regex).matcher(text);
+		if (!m.find()) {
+			throw new IllegalArgumentException("Map has no match for " + regex);
+		}
+		return Integer.parseInt(m.group(1));
+	}
+
+	/**
+	 * Solves every position by retrograde analysis.
+	 */
+	public void solve() {
+		int size = 2 * maxArcherHits * maxFootmanHits * cells * cells;
+		values = new short[size];
+		remaining = new byte[size];
+		queue = new int[size];
+		queueTail = 0;
+		int[] moveCounts = new int[cells];
+		for (int cell = 0; cell < cells; cell++) {
+			moveCounts[cell] = neighbors(cell, new int[4]);
+		}
+
+		// Count each mover's actions and solve immediate kills
+		for (int side = 0; side < 2; side++) {
+			boolean footmanToMove = side == 0;
+			for (int ah = 1; ah <= maxArcherHits; ah++) {
+				for (int fh = 1; fh <= maxFootmanHits; fh++) {
+					for (int a = 0; a < cells; a++) {
+						for (int f = 0; f < cells; f++) {
+							if (blocked[a] || blocked[f]) {
+								continue;
+							}
+							int index = index(footmanToMove, f, a, fh, ah);
+							boolean canAttack = inRange(f, a, footmanToMove);
+							// The archer's moves include the pass
+							remaining[index] = (byte) (moveCounts[footmanToMove ? f
+									: a] + (canAttack ? 1 : 0) + (footmanToMove ? 0
+									: 1));
+							if (canAttack && (footmanToMove ? ah : fh) == 1) {
+								solve(index, 1, footmanToMove);
+							}
+						}
+					}
+				}
+			}
+		}
+
+		// Walk back from solved positions in order of plys to the end
+		int[] neighbors = new int[4];
+		for (int head = 0; head < queueTail; head++) {
+			int index = queue[head];
+			int dtm = values[index] >>> 1;
+			boolean footmanWins = (values[index] & 1) == 1;
+			int f = index % cells;
+			int a = (index / cells) % cells;
+			int fh = (index / cells / cells) % maxFootmanHits + 1;
+			int ah = (index / cells / cells / maxFootmanHits) % maxArcherHits
+					+ 1;
+			// The previous position had the other side to move
+			boolean footmanMovedLast = index >= size / 2;
+			int count = neighbors(footmanMovedLast ? f : a, neighbors);
+			for (int i = 0; i < count; i++) {
+				int prev = footmanMovedLast ? index(true, neighbors[i], a, fh,
+						ah) : index(false, f, neighbors[i], fh, ah);
+				retract(prev, dtm, footmanWins, footmanMovedLast);
+			}
+			if (!footmanMovedLast) {
+				// The archer passed
+				retract(index(false, f, a, fh, ah), dtm, footmanWins, false);
+			}
+			if (inRange(f, a, footmanMovedLast)) {
+				if (footmanMovedLast && ah < maxArcherHits) {
+					retract(index(true, f, a, fh, ah + 1), dtm, footmanWins,
+							true);
+				} else if (!footmanMovedLast && fh < maxFootmanHits) {
+					retract(index(false, f, a, fh + 1, ah), dtm, footmanWins,
+							false);
+				}
+			}
+		}
+		remaining = null;
+		queue = null;
+	}
+
+	// Propagates a solved child to a predecessor whose mover is the footman
+	// if footmanToMove is true
+	private void retract(int prev, int childDtm, boolean footmanWins,
+			boolean footmanToMove) {
+		if (values[prev] != 0) {
+			return;
+		}
+		if (footmanWins == footmanToMove || --remaining[prev] == 0) {
+			solve(prev, childDtm + 1, footmanWins);
+		}
+	}
+
+	private void solve(int index, int dtm, boolean footmanWins) {
+		if (dtm >= Short.MAX_VALUE >> 1) {
+			throw new IllegalStateException("Ending too long to store");
+		}
+		values[index] = (short) (dtm << 1 | (footmanWins ? 1 : 0));
+		queue[queueTail++] = index;
+	}
+
+	private int index(boolean footmanToMove, int f, int a, int fh, int ah) {
+		return EndgameTablebase.index(footmanToMove, f, a, fh, ah, cells,
+				maxFootmanHits, maxArcherHits);
+	}
+
+	private boolean inRange(int f, int a, boolean footmanAttacks) {
+		return Distances.chebyshev(f % xExtent, f / xExtent, a % xExtent, a
+				/ xExtent) <= (footmanAttacks ? footmanRange : archerRange);
+	}
+
+	// Fills out with the open cells next to cell and returns how many
+	private int neighbors(int cell, int[] out) {
+		int x = cell % xExtent;
+		int y = cell / xExtent;
+		int count = 0;
+		for (int[] d : DIRECTIONS) {
+			int nx = x + d[0];
+			int ny = y + d[1];
+			if (0 <= nx && 0 <= ny && nx < xExtent && ny < yExtent
+					&& !blocked[ny * xExtent + nx]) {
+				out[count++] = ny * xExtent + nx;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Writes the solved table, bit-packed with just enough bits per entry for
+	 * the longest ending.
+	 *
+	 * @param path
+	 *            the file to write.
+	 */
+	public void write(String path) throws IOException {
+		int maxValue = 1;
+		for (short value : values) {
+			maxValue = Math.max(maxValue, value);
+		}
+		int bits = 32 - Integer.numberOfLeadingZeros(maxValue);
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(path)))) {
+			out.writeInt(EndgameTablebase.MAGIC);
+			out.writeInt(EndgameTablebase.VERSION);
+			out.writeInt(xExtent);
+			out.writeInt(yExtent);
+			out.writeInt(footmanDamage);
+			out.writeInt(footmanRange);
+			out.writeInt(archerDamage);
+			out.writeInt(archerRange);
+			out.writeInt(maxFootmanHits);
+			out.writeInt(maxArcherHits);
+			out.writeInt(bits);
+			out.write(new MapLayout(xExtent, yExtent, blocked).toBytes());
+			// Little-endian bit order, as read by EndgameTablebase
+			long buffer = 0;
+			int buffered = 0;
+			for (short value : values) {
+				buffer |= (long) value << buffered;
+				buffered += bits;
+				while (buffered >= 8) {
+					out.write((int) buffer);
+					buffer >>>= 8;
+					buffered -= 8;
+				}
+			}
+			out.write((int) buffer);
+			// Padding so every entry can be read as three whole bytes
+			out.write(new byte[2]);
+		}
+	}
+}
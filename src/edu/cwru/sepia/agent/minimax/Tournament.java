@@ -0,0 +1,92 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compares agent configurations by win rate against ArcherAgent on the
+ * bundled maps, and by the time they take to choose each turn's actions.
+ * Each configuration is one quoted, space separated list of
+ * {@link MinimaxAlphaBeta} arguments, e.g. to measure quiet move pruning at 4
+ * plys over 8 games per map:
+ *
+ * java -cp bin:lib/SEPIA.jar:archer_agent
+ * edu.cwru.sepia.agent.minimax.Tournament 8 "4" "4 true"
+ *
+ * SEPIA reads its configuration through JAXB, which is no longer part of the
+ * JDK after Java 8. On later JDKs the JAXB API and runtime jars have to be on
+ * the classpath too, since the episodes inherit it.
+ *
+ * Every game starts from its own random placement of the map's units, and
+ * every configuration plays the same starts, so differences between
+ * configurations are not down to the starts they drew.
+ */
+public class Tournament {
+
+	// Seed of the random starts, fixed so that runs can be repeated
+	private static final long SEED = 0;
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("Usage: Tournament gamesPerMap \"agent args\" ...");
+			System.exit(1);
+		}
+		int gamesPerMap = Integer.parseInt(args[0]);
+		File workDir = Files.createTempDirectory("minimax-tournament").toFile();
+		ExecutorService pool = Executors.newFixedThreadPool(Runtime
+				.getRuntime().availableProcessors());
+		try {
+			Random random = new Random(SEED);
+			List<String> starts = new ArrayList<String>();
+			for (String map : HeadlessMatch.BUNDLED_MAPS) {
+				for (int g = 0; g < gamesPerMap; g++) {
+					starts.add(HeadlessMatch.writeRandomStart(workDir, map,
+							random));
+				}
+			}
+			List<List<Future<HeadlessMatch.Result>>> games = new ArrayList<List<Future<HeadlessMatch.Result>>>();
+			for (int i = 1; i < args.length; i++) {
+				List<String> agentArgs = Arrays.asList(args[i].trim().split(
+						"\\s+"));
+				List<Future<HeadlessMatch.Result>> results = new ArrayList<Future<HeadlessMatch.Result>>();
+				for (String start : starts) {
+					File config = HeadlessMatch.writeConfig(workDir, start,
+							agentArgs);
+					results.add(pool.submit(() -> HeadlessMatch.play(config,
+							null)));
+				}
+				games.add(results);
+			}
+			for (int i = 1; i < args.length; i++) {
+				int wins = 0;
+				long winTurns = 0;
+				long searchMillis = 0;
+				long searchTurns = 0;
+				List<Future<HeadlessMatch.Result>> results = games.get(i - 1);
+				for (Future<HeadlessMatch.Result> future : results) {
+					HeadlessMatch.Result result = future.get();
+					if (result.won) {
+						wins++;
+						winTurns += result.turns;
+					}
+					searchMillis += result.searchMillis;
+					searchTurns += result.searchTurns;
+				}
+				System.out.printf("[%s] won %d/%d (%.1f%%), mean turns to win %.1f, "
+						+ "%.1f ms per turn%n", args[i], wins, results.size(),
+						100.0 * wins / results.size(), wins == 0 ? 0.0
+								: (double) winTurns / wins, searchTurns == 0 ? 0.0
+								: (double) searchMillis / searchTurns);
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,153 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.cwru.sepia.util.Direction;
+
+/**
+ * Turns a trace written by {@link TraceRecorder} back into a readable search
+ * tree, one tree per turn. Each line shows the joint action leading to a
+ * node, its value and the window it was searched with. The child the agent
+ * played is marked with a star.
+ *
+ * java -cp bin:lib/SEPIA.jar edu.cwru.sepia.agent.minimax.TraceDecoder
+ * trace.bin [maxPly]
+ */
+public class TraceDecoder {
+
+	private static class Node {
+
+		final long[] record;
+		List<Node> children;
+
+		Node(long[] record, List<Node> children) {
+			this.record = record;
+			this.children = children;
+		}
+	}
+
+	private final int maxPly;
+	// Searched nodes whose parent has not been recorded yet, by ply
+	private final Map<Integer, List<Node>> pending = new HashMap<Integer, List<Node>>();
+
+	private TraceDecoder(int maxPly) {
+		this.maxPly = maxPly;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: TraceDecoder trace.bin [maxPly]");
+			System.exit(1);
+		}
+		int maxPly = args.length > 1 ? Integer.parseInt(args[1])
+				: Integer.MAX_VALUE;
+		TraceDecoder decoder = new TraceDecoder(maxPly);
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(args[0])))) {
+			if (in.readInt() != TraceRecorder.MAGIC
+					|| in.readInt() != TraceRecorder.VERSION) {
+				throw new IOException("Not a search trace");
+			}
+			int words = in.readInt();
+			while (true) {
+				long[] record = new long[words];
+				try {
+					for (int i = 0; i < words; i++) {
+						record[i] = in.readLong();
+					}
+				} catch (EOFException e) {
+					break;
+				}
+				decoder.read(record);
+			}
+		}
+	}
+
+	private void read(long[] record) {
+		int kind = kind(record);
+		if (kind == TraceRecorder.NODE) {
+			int ply = ply(record);
+			Node node = new Node(record, take(ply + 1));
+			pending.computeIfAbsent(ply, p -> new ArrayList<Node>()).add(node);
+		} else if (kind == TraceRecorder.ROOT) {
+			System.out.printf("turn %d, %d plys: value %s%n", record[0] >>> 32,
+					ply(record), score(record));
+			// The children recorded before the budget ran out, in search order
+			List<Node> children = take(1);
+			for (int i = 0; i < children.size(); i++) {
+				print(children.get(i), 1, i == record[1]);
+			}
+			pending.clear();
+		} else if (kind == TraceRecorder.DROPPED) {
+			System.out.println("(" + record[1]
+					+ " records dropped, the trees around here are incomplete)");
+		}
+	}
+
+	private List<Node> take(int ply) {
+		List<Node> nodes = pending.remove(ply);
+		return nodes == null ? new ArrayList<Node>() : nodes;
+	}
+
+	private void print(Node node, int ply, boolean chosen) {
+		if (ply > maxPly) {
+			return;
+		}
+		StringBuilder line = new StringBuilder();
+		for (int i = 0; i < ply; i++) {
+			line.append("  ");
+		}
+		line.append(chosen ? "* " : "").append(actions(node.record))
+				.append(" = ").append(score(node.record)).append("  [")
+				.append(Double.longBitsToDouble(node.record[4])).append(", ")
+				.append(Double.longBitsToDouble(node.record[5])).append(']');
+		System.out.println(line);
+		for (Node child : node.children) {
+			print(child, ply + 1, false);
+		}
+	}
+
+	private static String actions(long[] record) {
+		int count = (int) (record[0] & 0xFFFF);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < Math.min(count, TraceRecorder.ACTIONS_PER_RECORD); i++) {
+			long word = record[1 + i / 2];
+			int code = (int) (i % 2 == 0 ? word >>> 32 : word);
+			int unit = code >>> 16;
+			int arg = code & 0x7FFF;
+			sb.append(i == 0 ? "" : ", ");
+			if ((code & 1 << 15) != 0) {
+				sb.append(unit).append(" attacks ").append(arg);
+			} else if (arg < Direction.values().length) {
+				sb.append(unit).append(' ').append(Direction.values()[arg]);
+			} else {
+				sb.append(unit).append(" ?");
+			}
+		}
+		if (count > TraceRecorder.ACTIONS_PER_RECORD) {
+			sb.append(", ... ").append(count - TraceRecorder.ACTIONS_PER_RECORD)
+					.append(" more");
+		}
+		return sb.toString();
+	}
+
+	private static int kind(long[] record) {
+		return (int) (record[0] >>> 24) & 0xFF;
+	}
+
+	private static int ply(long[] record) {
+		return (int) (record[0] >>> 16) & 0xFF;
+	}
+
+	private static double score(long[] record) {
+		return Double.longBitsToDouble(record[3]);
+	}
+}
@@ -0,0 +1,267 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+
+import edu.cwru.sepia.action.Action;
+import edu.cwru.sepia.action.ActionType;
+import edu.cwru.sepia.action.DirectedAction;
+import edu.cwru.sepia.action.TargetedAction;
+
+/**
+ * Records the search's decisions to a binary file for {@link TraceDecoder}
+ * without slowing the search down.
+ *
+ * The search thread writes fixed-size records of {@value #WORDS} longs into a
+ * preallocated ring, with no locking and no allocation per record. A daemon
+ * thread drains the ring to the file. If the ring is full the record is
+ * dropped rather than making the search wait, and the drain thread writes a
+ * {@link #DROPPED} record with the count.
+ *
+ * A {@link #NODE} record is written for every child once it has been
+ * searched, so a node's record always follows the records of its subtree. A
+ * {@link #ROOT} record closes each search with the position of the chosen
+ * child among the root's children.
+ *
+ * Tracing is off unless the {@value #TRACE_PROPERTY} system property names
+ * the file to write.
+ */
+public class TraceRecorder {
+
+	public static final String TRACE_PROPERTY = "minimax.trace";
+
+	static final int MAGIC = 0x4d4d5452;
+	static final int VERSION = 2;
+	// Header word: kind, ply, action count and turn. Then the first
+	// ACTIONS_PER_RECORD actions packed two per long, score, alpha, beta.
+	static final int WORDS = 6;
+	static final int ACTIONS_PER_RECORD = 4;
+
+	static final int NODE = 1;
+	static final int ROOT = 2;
+	static final int DROPPED = 3;
+
+	private static final int CAPACITY = 1 << 16;
+	private static final long DRAIN_INTERVAL_NANOS = TimeUnit.MILLISECONDS
+			.toNanos(1);
+
+	private final long[] ring = new long[CAPACITY * WORDS];
+	private final DataOutputStream out;
+	private final Thread drainer;
+	private volatile boolean running = true;
+	// Records written by the search thread, and the copy it publishes
+	private long head;
+	private final AtomicLong published = new AtomicLong();
+	private final AtomicLong drained = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	// The joint action being packed into a record. Packed through forEach with
+	// one reused consumer, since iterating the map would allocate an iterator
+	// per record.
+	private int count;
+	private long packed0;
+	private long packed1;
+	private final BiConsumer<Integer, Action> packer = this::pack;
+
+	private TraceRecorder(String path) throws IOException {
+		out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(path)));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(WORDS);
+		drainer = new Thread(this::drain, "minimax-trace");
+		drainer.setDaemon(true);
+		drainer.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+	}
+
+	/**
+	 * Starts recording to the file named by the {@value #TRACE_PROPERTY}
+	 * system property.
+	 *
+	 * @return the recorder, or null if tracing is off.
+	 */
+	public static TraceRecorder openConfigured() {
+		String path = System.getProperty(TRACE_PROPERTY);
+		if (path == null) {
+			return null;
+		}
+		try {
+			return new TraceRecorder(path);
+		} catch (IOException e) {
+			System.err.println("Unable to open trace " + path + ": "
+					+ e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Records a searched child. Must only be called from the search thread.
+	 *
+	 * @param ply
+	 *            the child's distance from the root.
+	 * @param actions
+	 *            the joint action leading to the child.
+	 * @param score
+	 *            the child's value.
+	 * @param alpha
+	 *            the lower bound it was searched with.
+	 * @param beta
+	 *            the upper bound it was searched with.
+	 */
+	public void node(int ply, Map<Integer, Action> actions, double score,
+			double alpha, double beta) {
+		int base = claim();
+		if (base < 0) {
+			return;
+		}
+		count = 0;
+		packed0 = 0;
+		packed1 = 0;
+		actions.forEach(packer);
+		ring[base] = header(NODE, ply, count, 0);
+		ring[base + 1] = packed0;
+		ring[base + 2] = packed1;
+		ring[base + 3] = Double.doubleToRawLongBits(score);
+		ring[base + 4] = Double.doubleToRawLongBits(alpha);
+		ring[base + 5] = Double.doubleToRawLongBits(beta);
+		publish();
+	}
+
+	/**
+	 * Records the end of a search. Must only be called from the search
+	 * thread.
+	 *
+	 * @param turn
+	 *            the turn searched.
+	 * @param depth
+	 *            the search depth in plys.
+	 * @param score
+	 *            the value of the chosen child.
+	 * @param chosen
+	 *            the index of the chosen child among the root's children in
+	 *            search order, or -1 if there were none.
+	 */
+	public void root(int turn, int depth, double score, int chosen) {
+		int base = claim();
+		if (base < 0) {
+			return;
+		}
+		ring[base] = header(ROOT, depth, 0, turn);
+		ring[base + 1] = chosen;
+		ring[base + 2] = 0;
+		ring[base + 3] = Double.doubleToRawLongBits(score);
+		ring[base + 4] = 0;
+		ring[base + 5] = 0;
+		publish();
+	}
+
+	/**
+	 * Stops the drain thread once everything recorded so far is written, and
+	 * closes the file.
+	 */
+	public void close() {
+		if (!running) {
+			return;
+		}
+		running = false;
+		LockSupport.unpark(drainer);
+		try {
+			drainer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// The ring offset of the next record, or -1 if the ring is full
+	private int claim() {
+		if (head - drained.get() >= CAPACITY) {
+			dropped.incrementAndGet();
+			return -1;
+		}
+		return (int) (head & (CAPACITY - 1)) * WORDS;
+	}
+
+	private void publish() {
+		published.lazySet(++head);
+	}
+
+	private void drain() {
+		long tail = 0;
+		long droppedWritten = 0;
+		try {
+			while (true) {
+				boolean stopping = !running;
+				long available = published.get();
+				while (tail < available) {
+					int base = (int) (tail & (CAPACITY - 1)) * WORDS;
+					for (int i = 0; i < WORDS; i++) {
+						out.writeLong(ring[base + i]);
+					}
+					drained.lazySet(++tail);
+				}
+				long droppedNow = dropped.get();
+				if (droppedNow != droppedWritten) {
+					out.writeLong(header(DROPPED, 0, 0, 0));
+					out.writeLong(droppedNow - droppedWritten);
+					for (int i = 2; i < WORDS; i++) {
+						out.writeLong(0);
+					}
+					droppedWritten = droppedNow;
+				}
+				if (stopping) {
+					break;
+				}
+				out.flush();
+				LockSupport.parkNanos(DRAIN_INTERVAL_NANOS);
+			}
+			out.close();
+		} catch (IOException e) {
+			System.err.println("Unable to write trace: " + e.getMessage());
+		}
+	}
+
+	private void pack(Integer unit, Action action) {
+		long code = encode(action) & 0xFFFFFFFFL;
+		switch (count++) {
+		case 0:
+			packed0 |= code << 32;
+			break;
+		case 1:
+			packed0 |= code;
+			break;
+		case 2:
+			packed1 |= code << 32;
+			break;
+		case 3:
+			packed1 |= code;
+			break;
+		default:
+			break;
+		}
+	}
+
+	private static long header(int kind, int ply, int count, int turn) {
+		return (long) turn << 32 | (kind & 0xFF) << 24 | (ply & 0xFF) << 16
+				| (count & 0xFFFF);
+	}
+
+	// Unit ID in the top 16 bits, then 1 bit set for an attack, then the
+	// target ID of an attack or the direction of a move
+	private static int encode(Action action) {
+		int code = action.getUnitId() << 16;
+		if (action.getType() == ActionType.PRIMITIVEATTACK) {
+			return code | 1 << 15 | (((TargetedAction) action).getTargetId() & 0x7FFF);
+		}
+		if (action instanceof DirectedAction) {
+			return code | ((DirectedAction) action).getDirection().ordinal();
+		}
+		return code | 0x7FFF;
+	}
+}